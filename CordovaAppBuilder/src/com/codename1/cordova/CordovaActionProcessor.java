@@ -0,0 +1,425 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor that generates a router for each class with <code>@CordovaAction</code> methods.
+ *
+ * <p>The router for <code>CameraPlugin</code> is <code>CameraPluginRouter</code>, in the same package.  It implements
+ * <code>CordovaArgsPlugin</code>, and its <code>execute()</code> switches on the hash code of the action name,
+ * reads each argument from the <code>CordovaArgs</code> with the getter for its parameter type, and calls the method.
+ * See <code>com.codename1.cordova.CordovaAction</code> for the supported parameter and return types.</p>
+ *
+ * <p>The processor is registered in <code>META-INF/services</code>, so javac runs it whenever
+ * <code>CordovaAppBuilder.jar</code> is on the processor path.  The Cordova project template puts it there.</p>
+ * @author shannah
+ */
+@SupportedAnnotationTypes(CordovaActionProcessor.ANNOTATION)
+public class CordovaActionProcessor extends AbstractProcessor {
+
+    /**
+     * The annotation that marks action methods.
+     */
+    static final String ANNOTATION = "com.codename1.cordova.CordovaAction";
+
+    private static final String PACKAGE = "com.codename1.cordova";
+    private static final ClassName CORDOVA_ARGS = ClassName.get(PACKAGE, "CordovaArgs");
+    private static final ClassName CALLBACK_CONTEXT = ClassName.get(PACKAGE, "CallbackContext");
+    private static final ClassName CORDOVA_ARGS_PLUGIN = ClassName.get(PACKAGE, "CordovaArgsPlugin");
+    private static final ClassName CONFIGURABLE_PLUGIN = ClassName.get(PACKAGE, "ConfigurablePlugin");
+    private static final ClassName ACTION_OPTIONS = ClassName.get(PACKAGE, "ActionOptions");
+    private static final ClassName CALLBACK = ClassName.get("com.codename1.util", "Callback");
+    private static final ClassName JSON_EXCEPTION = ClassName.get("ca.weblite.codename1.json", "JSONException");
+    private static final ClassName LOG = ClassName.get("com.codename1.io", "Log");
+
+    /**
+     * The getter of <code>CordovaArgs</code> for each required parameter type.
+     */
+    private static final Map<String,String> GETTERS = new HashMap<String,String>();
+
+    /**
+     * The getter of <code>CordovaArgs</code> for each optional (boxed) parameter type.
+     */
+    private static final Map<String,String> OPTIONAL_GETTERS = new HashMap<String,String>();
+
+    static {
+        GETTERS.put("boolean", "getBoolean");
+        GETTERS.put("int", "getInt");
+        GETTERS.put("long", "getLong");
+        GETTERS.put("float", "getDouble");
+        GETTERS.put("double", "getDouble");
+        GETTERS.put("java.lang.String", "getString");
+        GETTERS.put("byte[]", "getBytes");
+        GETTERS.put("java.lang.Object", "get");
+        OPTIONAL_GETTERS.put("java.lang.Boolean", "getBoolean");
+        OPTIONAL_GETTERS.put("java.lang.Integer", "getInt");
+        OPTIONAL_GETTERS.put("java.lang.Long", "getLong");
+        OPTIONAL_GETTERS.put("java.lang.Double", "getDouble");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+        Map<TypeElement,List<ExecutableElement>> classes = new LinkedHashMap<TypeElement,List<ExecutableElement>>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            TypeElement owner = (TypeElement)element.getEnclosingElement();
+            List<ExecutableElement> methods = classes.get(owner);
+            if (methods == null) {
+                methods = new ArrayList<ExecutableElement>();
+                classes.put(owner, methods);
+            }
+            methods.add((ExecutableElement)element);
+        }
+        for (Map.Entry<TypeElement,List<ExecutableElement>> e : classes.entrySet()) {
+            try {
+                writeRouter(e.getKey(), e.getValue());
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write router: "+ex.getMessage(), e.getKey());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates the router for a class.
+     */
+    private void writeRouter(TypeElement type, List<ExecutableElement> methods) throws IOException {
+        Messager messager = processingEnv.getMessager();
+        if (!checkAccessible(type)) {
+            return;
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@CordovaAction methods can't be declared in generic classes", type);
+            return;
+        }
+        ClassName target = ClassName.get(type);
+        String packageName = target.packageName();
+        StringBuilder routerName = new StringBuilder();
+        for (String name : target.simpleNames()) {
+            if (routerName.length() > 0) {
+                routerName.append('_');
+            }
+            routerName.append(name);
+        }
+        routerName.append("Router");
+
+        TypeSpec.Builder router = TypeSpec.classBuilder(routerName.toString())
+                .addJavadoc("Dispatches actions to the {@code @CordovaAction} methods of {@link $T}.\n", target)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(CORDOVA_ARGS_PLUGIN)
+                .addOriginatingElement(type)
+                .addField(target, "target", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addJavadoc("Creates a router.\n@param target The object whose methods handle the actions.\n")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(target, "target")
+                        .addStatement("this.target = target")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("getTarget")
+                        .addJavadoc("Gets the object whose methods handle the actions.\n@return The target.\n")
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(target)
+                        .addStatement("return target")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("execute")
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addParameter(String.class, "action")
+                        .addParameter(String.class, "jsonArgs")
+                        .addParameter(CALLBACK, "callback")
+                        .addStatement("return false")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("execute")
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addParameter(String.class, "action")
+                        .addParameter(List.class, "args")
+                        .addParameter(CALLBACK, "callback")
+                        .addStatement("return false")
+                        .build());
+
+        TypeElement configurable = processingEnv.getElementUtils().getTypeElement(CONFIGURABLE_PLUGIN.toString());
+        if (configurable != null && processingEnv.getTypeUtils().isAssignable(type.asType(), configurable.asType())) {
+            router.addSuperinterface(CONFIGURABLE_PLUGIN)
+                    .addMethod(MethodSpec.methodBuilder("getActionOptions")
+                            .addModifiers(Modifier.PUBLIC)
+                            .returns(ACTION_OPTIONS)
+                            .addParameter(String.class, "action")
+                            .addStatement("return target.getActionOptions(action)")
+                            .build());
+        }
+
+        // Actions grouped by the hash code of their name, which is what the dispatcher switches on.
+        Map<Integer,List<String>> cases = new LinkedHashMap<Integer,List<String>>();
+        Map<String,String> handlers = new HashMap<String,String>();
+        List<MethodSpec> handlerMethods = new ArrayList<MethodSpec>();
+        boolean ok = true;
+        for (ExecutableElement method : methods) {
+            String action = getActionName(method);
+            if (handlers.containsKey(action)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Duplicate @CordovaAction \""+action+"\"", method);
+                ok = false;
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            String handlerName = "handle"+Character.toUpperCase(methodName.charAt(0))+methodName.substring(1);
+            if (handlers.containsValue(handlerName)) {
+                // Overloaded method.
+                handlerName += handlers.size();
+            }
+            MethodSpec handler = buildHandler(target, method, handlerName);
+            if (handler == null) {
+                ok = false;
+                continue;
+            }
+            handlerMethods.add(handler);
+            handlers.put(action, handlerName);
+            List<String> names = cases.get(action.hashCode());
+            if (names == null) {
+                names = new ArrayList<String>();
+                cases.put(action.hashCode(), names);
+            }
+            names.add(action);
+        }
+        if (!ok) {
+            return;
+        }
+
+        CodeBlock.Builder dispatch = CodeBlock.builder().beginControlFlow("switch (action.hashCode())");
+        for (Map.Entry<Integer,List<String>> c : cases.entrySet()) {
+            dispatch.add("case $L:\n", c.getKey()).indent();
+            for (String action : c.getValue()) {
+                dispatch.beginControlFlow("if ($S.equals(action))", action)
+                        .addStatement("$N(args, callback)", handlers.get(action))
+                        .addStatement("return true")
+                        .endControlFlow();
+            }
+            dispatch.addStatement("break").unindent();
+        }
+        dispatch.endControlFlow().addStatement("return false");
+        router.addMethod(MethodSpec.methodBuilder("execute")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(boolean.class)
+                .addParameter(String.class, "action")
+                .addParameter(CORDOVA_ARGS, "args")
+                .addParameter(CALLBACK_CONTEXT, "callback")
+                .addCode(dispatch.build())
+                .build());
+        for (MethodSpec handler : handlerMethods) {
+            router.addMethod(handler);
+        }
+
+        JavaFile.builder(packageName, router.build())
+                .addFileComment("This file was automatically generated from $L.  Changes may be overwritten", target.simpleName())
+                .build()
+                .writeTo(processingEnv.getFiler());
+    }
+
+    /**
+     * Builds the method that binds the arguments of an action and calls its handler.
+     * @return The method, or null if the handler can't be called, in which case an error has been reported.
+     */
+    private MethodSpec buildHandler(ClassName target, ExecutableElement method, String name) {
+        Messager messager = processingEnv.getMessager();
+        if (method.getModifiers().contains(Modifier.PRIVATE)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@CordovaAction methods can't be private", method);
+            return null;
+        }
+        MethodSpec.Builder handler = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(CORDOVA_ARGS, "args")
+                .addParameter(CALLBACK_CONTEXT, "callback");
+        CodeBlock.Builder bind = CodeBlock.builder();
+        List<String> callArgs = new ArrayList<String>();
+        boolean takesCallback = false;
+        int index = 0;
+        List<? extends VariableElement> params = method.getParameters();
+        for (int i=0; i<params.size(); i++) {
+            TypeMirror paramType = params.get(i).asType();
+            String typeName = typeName(paramType);
+            String var = "arg"+i;
+            if (CALLBACK_CONTEXT.toString().equals(typeName) || CALLBACK.toString().equals(typeName)) {
+                takesCallback = true;
+                callArgs.add("callback");
+            } else if (CORDOVA_ARGS.toString().equals(typeName)) {
+                callArgs.add("args");
+            } else if (GETTERS.containsKey(typeName)) {
+                handler.addStatement("$T $N", TypeName.get(paramType), var);
+                if ("float".equals(typeName)) {
+                    bind.addStatement("$N = (float)args.getDouble($L)", var, index);
+                } else {
+                    bind.addStatement("$N = args.$N($L)", var, GETTERS.get(typeName), index);
+                }
+                callArgs.add(var);
+                index++;
+            } else if (OPTIONAL_GETTERS.containsKey(typeName)) {
+                TypeName boxed = TypeName.get(paramType);
+                handler.addStatement("$T $N", boxed, var);
+                bind.addStatement("$N = args.isNull($L) ? null : new $T(args.$N($L))", var, index, boxed, OPTIONAL_GETTERS.get(typeName), index);
+                callArgs.add(var);
+                index++;
+            } else {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Unsupported @CordovaAction parameter type "+typeName, params.get(i));
+                return null;
+            }
+        }
+        TypeMirror returnType = method.getReturnType();
+        if (takesCallback && returnType.getKind() != TypeKind.VOID) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@CordovaAction methods that take a CallbackContext must return void", method);
+            return null;
+        }
+        if (!bind.build().isEmpty()) {
+            handler.beginControlFlow("try")
+                    .addCode(bind.build())
+                    .nextControlFlow("catch ($T ex)", JSON_EXCEPTION)
+                    .addStatement("callback.error(ex.getMessage())")
+                    .addStatement("return")
+                    .endControlFlow();
+        }
+
+        StringBuilder argList = new StringBuilder();
+        for (int i=0; i<callArgs.size(); i++) {
+            if (i > 0) {
+                argList.append(", ");
+            }
+            argList.append(callArgs.get(i));
+        }
+        CodeBlock call = method.getModifiers().contains(Modifier.STATIC)
+                ? CodeBlock.builder().add("$T.$N($L)", target, method.getSimpleName().toString(), argList).build()
+                : CodeBlock.builder().add("target.$N($L)", method.getSimpleName().toString(), argList).build();
+
+        // Always catch, so that unchecked exceptions reach the callback too instead of leaving javascript waiting.
+        handler.beginControlFlow("try");
+        if (takesCallback) {
+            handler.addStatement("$L", call);
+        } else if (returnType.getKind() == TypeKind.VOID) {
+            handler.addStatement("$L", call).addStatement("callback.success(null)");
+        } else if (returnType.getKind().isPrimitive()) {
+            TypeName boxed = TypeName.get(returnType).box();
+            if (returnType.getKind() == TypeKind.BYTE || returnType.getKind() == TypeKind.SHORT || returnType.getKind() == TypeKind.CHAR) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Unsupported @CordovaAction return type "+returnType, method);
+                return null;
+            }
+            handler.addStatement("callback.success(new $T($L))", boxed, call);
+        } else {
+            handler.addStatement("callback.success($L)", call);
+        }
+        handler.nextControlFlow("catch ($T ex)", Exception.class)
+                .addStatement("$T.e(ex)", LOG)
+                .addStatement("callback.error(ex.getMessage() != null ? ex.getMessage() : ex.toString())")
+                .endControlFlow();
+        return handler.build();
+    }
+
+    /**
+     * Gets the action name of a method: the value of its annotation, or the method name.
+     */
+    private String getActionName(ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (!ANNOTATION.equals(((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().toString())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement,? extends AnnotationValue> e : mirror.getElementValues().entrySet()) {
+                if ("value".equals(e.getKey().getSimpleName().toString())) {
+                    String value = (String)e.getValue().getValue();
+                    if (value.length() > 0) {
+                        return value;
+                    }
+                }
+            }
+        }
+        return method.getSimpleName().toString();
+    }
+
+    /**
+     * Checks that the router, which is generated in the same package, can use a class.
+     */
+    private boolean checkAccessible(TypeElement type) {
+        Element e = type;
+        while (e instanceof TypeElement) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@CordovaAction methods can't be declared in private classes", type);
+                return false;
+            }
+            NestingKind nesting = ((TypeElement)e).getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@CordovaAction methods can't be declared in local or anonymous classes", type);
+                return false;
+            }
+            if (nesting == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@CordovaAction methods can't be declared in inner classes.  Make the class static", type);
+                return false;
+            }
+            e = e.getEnclosingElement();
+        }
+        return e instanceof PackageElement;
+    }
+
+    /**
+     * Gets the name of a type as it is used in the getter maps.
+     */
+    private static String typeName(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return typeName(((ArrayType)type).getComponentType())+"[]";
+        }
+        // Declared types print as their qualified names, and primitives as their keywords.
+        return type.toString();
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import ca.weblite.codename1.json.JSONException;
+import com.codename1.util.Callback;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the native side of the exec bridge.  Each benchmark drives {@link CordovaBridge} the way
+ * <code>CN1Exec</code>/<code>CN1ExecBatch</code> do, then runs one "EDT cycle" on a {@link HeadlessHost} so that the
+ * results are serialized and flushed into callback scripts.
+ *
+ * <p>Run with <code>ant run</code> (see README.md), which adds the GC profiler so that allocation rates are
+ * reported alongside throughput and latency.</p>
+ * @author shannah
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BridgeBenchmark {
+
+    /**
+     * Number of calls in a burst.
+     */
+    private static final int BURST_SIZE = 1000;
+
+    private HeadlessHost host;
+    private CordovaBridge bridge;
+
+    private String scalarArgs;
+    private String objectGraphArgs;
+    private String arrayBufferArgs;
+    private String burstBatch;
+
+    @Setup
+    public void setup() {
+        host = new HeadlessHost();
+        HashMap<String,CordovaPlugin> plugins = new HashMap<String,CordovaPlugin>();
+        plugins.put("Echo", new EchoPlugin());
+        plugins.put("Scalars", new ScalarsPlugin());
+        plugins.put("Binary", new BinaryPlugin());
+        bridge = new CordovaBridge(host, plugins);
+
+        scalarArgs = "[42,\"photo\",true]";
+        objectGraphArgs = buildObjectGraph(100 * 1024);
+        arrayBufferArgs = buildArrayBuffer(64 * 1024);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i=0; i<BURST_SIZE; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("[\"Scalars").append(i).append("\",\"Scalars\",\"add\",").append(scalarArgs).append(']');
+        }
+        sb.append(']');
+        burstBatch = sb.toString();
+    }
+
+    /**
+     * A couple of scalars read through {@link CordovaArgs}.
+     */
+    @Benchmark
+    public String smallScalarsLazy() {
+        bridge.exec("Scalars1", "Scalars", "add", scalarArgs);
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * The same scalars, decoded into a List.
+     */
+    @Benchmark
+    public String smallScalarsList() {
+        bridge.exec("Echo1", "Echo", "first", scalarArgs);
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * A ~100KB object graph, decoded into a List and serialized back as the result.
+     */
+    @Benchmark
+    public String objectGraphRoundTrip() {
+        bridge.exec("Echo2", "Echo", "echo", objectGraphArgs);
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * A 64KB ArrayBuffer argument.
+     */
+    @Benchmark
+    public String arrayBufferArg() {
+        bridge.exec("Binary1", "Binary", "length", arrayBufferArgs);
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * A 64KB byte[] result.
+     */
+    @Benchmark
+    public String arrayBufferResult() {
+        bridge.exec("Binary2", "Binary", "bytes", "[65536]");
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * A burst of small calls arriving in one <code>CN1ExecBatch</code>, with their results flushed together.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public String burst() {
+        bridge.execBatch(burstBatch);
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * Builds an argument array containing one object graph of roughly the given size.
+     */
+    private static String buildObjectGraph(int size) {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder(size + 256);
+        sb.append("[{\"items\":[");
+        int i = 0;
+        while (sb.length() < size) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(i)
+                    .append(",\"name\":\"Item \\\"").append(i).append("\\\"\"")
+                    .append(",\"price\":").append(r.nextInt(100000) / 100.0)
+                    .append(",\"tags\":[\"a\",\"b\",\"c\"]")
+                    .append(",\"available\":").append(r.nextBoolean())
+                    .append(",\"location\":{\"lat\":").append(r.nextDouble()).append(",\"lng\":").append(r.nextDouble()).append('}')
+                    .append('}');
+            i++;
+        }
+        sb.append("]}]");
+        return sb.toString();
+    }
+
+    /**
+     * Builds an argument array containing one ArrayBuffer of the given size.
+     */
+    private static String buildArrayBuffer(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        StringBuilder sb = new StringBuilder();
+        sb.append("[{\"CDVType\":\"ArrayBuffer\",\"data\":\"");
+        JSONResultWriter.writeBase64(sb, data, 0, data.length);
+        sb.append("\"}]");
+        return sb.toString();
+    }
+
+    /**
+     * Echoes its arguments back, using the List variant of execute().
+     */
+    static class EchoPlugin implements CordovaPlugin {
+        public boolean execute(String action, List args, Callback callback) {
+            if ("echo".equals(action)) {
+                callback.onSucess(args);
+                return true;
+            }
+            if ("first".equals(action)) {
+                callback.onSucess(args.get(0));
+                return true;
+            }
+            return false;
+        }
+
+        public boolean execute(String action, String jsonArgs, Callback callback) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads scalars through CordovaArgs.
+     */
+    static class ScalarsPlugin implements CordovaArgsPlugin {
+        public boolean execute(String action, CordovaArgs args, CallbackContext callback) {
+            if ("add".equals(action)) {
+                try {
+                    callback.success(new Integer(args.getInt(0) + (args.getBoolean(2) ? 1 : 0)));
+                } catch (JSONException ex) {
+                    callback.error(ex.getMessage());
+                }
+                return true;
+            }
+            return false;
+        }
+
+        public boolean execute(String action, List args, Callback callback) {
+            return false;
+        }
+
+        public boolean execute(String action, String jsonArgs, Callback callback) {
+            return false;
+        }
+    }
+
+    /**
+     * Takes and returns binary data.
+     */
+    static class BinaryPlugin implements CordovaArgsPlugin {
+        private byte[] data = new byte[0];
+
+        public boolean execute(String action, CordovaArgs args, CallbackContext callback) {
+            try {
+                if ("length".equals(action)) {
+                    callback.success(new Integer(args.getBytes(0).length));
+                    return true;
+                }
+                if ("bytes".equals(action)) {
+                    int len = args.getInt(0);
+                    if (data.length != len) {
+                        data = new byte[len];
+                        new Random(42).nextBytes(data);
+                    }
+                    callback.success(data);
+                    return true;
+                }
+            } catch (JSONException ex) {
+                callback.error(ex.getMessage());
+                return true;
+            }
+            return false;
+        }
+
+        public boolean execute(String action, List args, Callback callback) {
+            return false;
+        }
+
+        public boolean execute(String action, String jsonArgs, Callback callback) {
+            return false;
+        }
+    }
+}
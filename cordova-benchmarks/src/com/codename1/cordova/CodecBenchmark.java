@@ -0,0 +1,333 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.util.Callback;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link BridgeCodec}s on the binary payloads that plugins typically move: a camera photo passed
+ * in as an argument, the same photo returned as a result, a recording large enough to be sent in chunks, and
+ * a result that mixes metadata with a thumbnail.
+ *
+ * <p>Arguments are always base64, whatever the codec, so <code>photoArg</code> measures the same work for both.
+ * Run the class directly to print the number of bytes that each payload takes as it crosses the bridge: results
+ * are handed to the web view as UTF-16 scripts, and calls from javascript are URL-encoded.  The javascript side
+ * is compared by <code>js/codec-benchmark.html</code>.  Before printing, <code>main</code> checks that results in
+ * the compact encoding decode back to the bytes that were sent, and fails if they don't.</p>
+ * @author shannah
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    /**
+     * Size of a photo, roughly a compressed phone camera picture scaled for display.
+     */
+    private static final int PHOTO_SIZE = 256 * 1024;
+
+    /**
+     * Size of a recording, large enough to be sent in chunks.
+     */
+    private static final int RECORDING_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * Size of the thumbnail in the mixed result.
+     */
+    private static final int THUMBNAIL_SIZE = 16 * 1024;
+
+    @Param({"json", "compact"})
+    public String codec;
+
+    private HeadlessHost host;
+    private CordovaBridge bridge;
+    private String photoArgs;
+
+    @Setup
+    public void setup() {
+        BridgeCodec bridgeCodec = "compact".equals(codec) ? BridgeCodec.COMPACT : BridgeCodec.JSON;
+        host = new HeadlessHost();
+        HashMap<String,CordovaPlugin> plugins = new HashMap<String,CordovaPlugin>();
+        plugins.put("Binary", new BridgeBenchmark.BinaryPlugin());
+        plugins.put("Photo", new PhotoPlugin());
+        bridge = new CordovaBridge(host, plugins);
+        bridge.getCallbackDispatcher().setCodec(bridgeCodec);
+
+        photoArgs = args(BridgeCodec.JSON);
+    }
+
+    /**
+     * Gets the arguments of a call that passes a photo, with the photo in an encoding.
+     */
+    private static String args(BridgeCodec encoding) {
+        byte[] photo = new byte[PHOTO_SIZE];
+        new Random(42).nextBytes(photo);
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        encoding.writeBytes(sb, photo, 0, photo.length);
+        sb.append(']');
+        return sb.toString();
+    }
+
+    /**
+     * A photo passed to a plugin as an ArrayBuffer argument, decoded to <code>byte[]</code>.
+     */
+    @Benchmark
+    public String photoArg() {
+        bridge.exec("Binary1", "Binary", "length", photoArgs);
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * A photo returned as a <code>byte[]</code> result, encoded into one callback script.
+     */
+    @Benchmark
+    public String photoResult() {
+        bridge.exec("Binary2", "Binary", "bytes", "["+PHOTO_SIZE+"]");
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * A recording returned as a <code>byte[]</code> result, which is sent in chunks.
+     */
+    @Benchmark
+    public String recordingResult() {
+        bridge.exec("Binary3", "Binary", "bytes", "["+RECORDING_SIZE+"]");
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * A result with metadata and a thumbnail, like a media picker returns.
+     */
+    @Benchmark
+    public String mixedResult() {
+        bridge.exec("Photo1", "Photo", "pick", "[]");
+        host.runPending();
+        return host.getLastScript();
+    }
+
+    /**
+     * Gets the number of bytes that a string takes once it is encoded with javascript's
+     * <code>encodeURIComponent()</code>, as the arguments of calls to the native side are.
+     */
+    static long urlEncodedLength(String s) {
+        long length = 0;
+        int len = s.length();
+        for (int i=0; i<len; i++) {
+            char c = s.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "-_.!~*'()".indexOf(c) >= 0) {
+                length += 1;
+            } else if (c < 0x80) {
+                length += 3;
+            } else if (c < 0x800) {
+                length += 6;
+            } else if (Character.isHighSurrogate(c)) {
+                // The pair is one 4 byte UTF-8 sequence.
+                length += 12;
+                i++;
+            } else {
+                length += 9;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Sends <code>byte[]</code> results in the compact encoding through a {@link CallbackDispatcher}, and checks
+     * that they decode back to the bytes that were sent.  Covers every length from 0 to 64, inline, and
+     * lengths around one and two chunks for several chunk sizes, since each chunk is encoded on its own.
+     * @return The number of results checked.
+     * @throws IllegalStateException If a result doesn't decode to the bytes that were sent.
+     */
+    static int verifyCompact() {
+        int checked = 0;
+        for (int len=0; len<=64; len++) {
+            verifyCompact(len, 192 * 1024);
+            checked++;
+        }
+        int[] chunkSizes = {3, 6, 15, 30, 33, 1023};
+        for (int i=0; i<chunkSizes.length; i++) {
+            int c = chunkSizes[i];
+            int[] lengths = {c - 1, c, c + 1, 2 * c - 1, 2 * c, 2 * c + 1, 3 * c + 2};
+            for (int j=0; j<lengths.length; j++) {
+                verifyCompact(lengths[j], c);
+                checked++;
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * Sends one <code>byte[]</code> result in the compact encoding and checks that the scripts decode back to it.
+     */
+    private static void verifyCompact(int len, int chunkSize) {
+        final ArrayList<String> scripts = new ArrayList<String>();
+        HeadlessHost host = new HeadlessHost() {
+            public void executeScript(String script) {
+                super.executeScript(script);
+                scripts.add(script);
+            }
+        };
+        CallbackDispatcher dispatcher = new CallbackDispatcher(host);
+        dispatcher.setCodec(BridgeCodec.COMPACT);
+        dispatcher.setBinaryChunkSize(chunkSize);
+        byte[] sent = new byte[len];
+        new Random(len * 31 + chunkSize).nextBytes(sent);
+        dispatcher.sendSuccess("Compact"+len, sent, false);
+        host.runPending();
+
+        byte[] received = new byte[len];
+        int decoded = 0;
+        for (int i=0; i<scripts.size(); i++) {
+            String script = scripts.get(i);
+            if (script.startsWith("cordova.binaryChunkFromNative(")) {
+                // cordova.binaryChunkFromNative(id,length,offset,"data","compact",chunkLength)
+                String[] parts = script.substring(script.indexOf('(') + 1, script.lastIndexOf(')')).split(",");
+                int offset = Integer.parseInt(parts[2]);
+                int chunkLength = Integer.parseInt(parts[5]);
+                if (!"\"compact\"".equals(parts[4])) {
+                    throw new IllegalStateException("Chunk is not compact: "+script);
+                }
+                decodeCompact(parts[3].substring(1, parts[3].length() - 1), chunkLength, received, offset);
+                decoded += chunkLength;
+            } else {
+                int start = script.indexOf("{\"CDVType\":\"CN1Bytes\",\"length\":");
+                if (start < 0) {
+                    continue;
+                }
+                start = script.indexOf(':', script.indexOf("\"length\"", start)) + 1;
+                int length = Integer.parseInt(script.substring(start, script.indexOf(',', start)));
+                start = script.indexOf("\"data\":\"", start) + 8;
+                decodeCompact(script.substring(start, script.indexOf('"', start)), length, received, 0);
+                decoded += length;
+            }
+        }
+        if (decoded != len || !Arrays.equals(sent, received)) {
+            throw new IllegalStateException("Compact result of "+len+" bytes in chunks of "+chunkSize
+                    +" bytes decoded to "+decoded+" bytes that don't match");
+        }
+    }
+
+    /**
+     * Decodes bytes in the compact encoding, the same way as <code>decodeCompact()</code> in the
+     * <code>cordova/cn1codec</code> module of cordova.js.  Keep the two in step.
+     */
+    static void decodeCompact(String str, int length, byte[] array, int offset) {
+        int acc = 0;
+        int bits = 0;
+        int pos = offset;
+        int end = offset + length;
+        for (int i=0, len=str.length(); i<len && pos<end; i++) {
+            acc = (acc << 15) | ((str.charAt(i) - BridgeCodec.COMPACT_BASE) & 0x7fff);
+            bits += 15;
+            while (bits >= 8 && pos < end) {
+                bits -= 8;
+                array[pos++] = (byte)((acc >> bits) & 0xff);
+            }
+            acc &= (1 << bits) - 1;
+        }
+    }
+
+    /**
+     * Checks the compact encoding, then prints the number of bytes that each payload takes as it crosses
+     * the bridge, with each codec.
+     */
+    public static void main(String[] args) {
+        System.out.println("compact round trip: "+verifyCompact()+" results OK");
+        String[] codecs = {"json", "compact"};
+        System.out.println("payload\tcodec\tchars\twire bytes");
+        for (int i=0; i<codecs.length; i++) {
+            // Not what cordova.js sends for compact, but shows why arguments stay base64.
+            String photoArgs = args("compact".equals(codecs[i]) ? BridgeCodec.COMPACT : BridgeCodec.JSON);
+            System.out.println("photoArg\t"+codecs[i]+"\t"+photoArgs.length()+"\t"+urlEncodedLength(photoArgs)+" (URL-encoded)");
+        }
+        for (int i=0; i<codecs.length; i++) {
+            CodecBenchmark benchmark = new CodecBenchmark();
+            benchmark.codec = codecs[i];
+            benchmark.setup();
+            String[] names = {"photoResult", "recordingResult", "mixedResult"};
+            for (int j=0; j<names.length; j++) {
+                benchmark.host.reset();
+                if (j == 0) {
+                    benchmark.photoResult();
+                } else if (j == 1) {
+                    benchmark.recordingResult();
+                } else {
+                    benchmark.mixedResult();
+                }
+                long chars = benchmark.host.getScriptChars();
+                System.out.println(names[j]+"\t"+codecs[i]+"\t"+chars+"\t"+(chars*2)+" (UTF-16)");
+            }
+        }
+    }
+
+    /**
+     * Returns a photo's metadata with a thumbnail.
+     */
+    static class PhotoPlugin implements CordovaPlugin {
+        private final HashMap<String,Object> result = new HashMap<String,Object>();
+
+        PhotoPlugin() {
+            byte[] thumbnail = new byte[THUMBNAIL_SIZE];
+            new Random(7).nextBytes(thumbnail);
+            HashMap<String,Object> exif = new HashMap<String,Object>();
+            exif.put("make", "Codename One");
+            exif.put("model", "Simulator");
+            exif.put("exposureTime", new Double(1 / 120.0));
+            exif.put("iso", new Integer(200));
+            result.put("uri", "file:///photos/IMG_0042.jpg");
+            result.put("width", new Integer(4032));
+            result.put("height", new Integer(3024));
+            result.put("exif", exif);
+            result.put("thumbnail", thumbnail);
+        }
+
+        public boolean execute(String action, String jsonArgs, Callback callback) {
+            if ("pick".equals(action)) {
+                callback.onSucess(result);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean execute(String action, List args, Callback callback) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import java.util.ArrayList;
+
+/**
+ * A {@link BridgeHost} that runs without a display.  Tasks passed to {@link #callSerially(java.lang.Runnable) }
+ * are queued until {@link #runPending() } is called, which stands in for one EDT cycle.  Scripts are recorded
+ * rather than executed.
+ * @author shannah
+ */
+class HeadlessHost implements BridgeHost {
+
+    /**
+     * Tasks waiting for the next "EDT cycle".
+     */
+    private final ArrayList<Runnable> pending = new ArrayList<Runnable>();
+
+    /**
+     * Number of scripts executed since the last reset.
+     */
+    private int scriptCount;
+
+    /**
+     * Total length of the scripts executed since the last reset.
+     */
+    private long scriptChars;
+
+    /**
+     * The last script executed.
+     */
+    private String lastScript;
+
+    public void executeScript(String script) {
+        scriptCount++;
+        scriptChars += script.length();
+        lastScript = script;
+    }
+
+    public synchronized void callSerially(Runnable task) {
+        pending.add(task);
+    }
+
+    /**
+     * Runs the tasks that are pending, including any that they queue.
+     */
+    void runPending() {
+        while (true) {
+            Runnable[] tasks;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                tasks = pending.toArray(new Runnable[pending.size()]);
+                pending.clear();
+            }
+            for (int i=0; i<tasks.length; i++) {
+                tasks[i].run();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of scripts executed since the last reset.
+     */
+    int getScriptCount() {
+        return scriptCount;
+    }
+
+    /**
+     * Gets the total length of the scripts executed since the last reset.
+     */
+    long getScriptChars() {
+        return scriptChars;
+    }
+
+    /**
+     * Gets the last script executed.
+     */
+    String getLastScript() {
+        return lastScript;
+    }
+
+    /**
+     * Resets the script counters.
+     */
+    void reset() {
+        scriptCount = 0;
+        scriptChars = 0;
+        lastScript = null;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays a session recorded with {@link CordovaApplication#startRecording(java.lang.String) } through the bridge,
+ * with stub plugins that send back the recorded results.  This measures the bridge on a real workload rather than
+ * a synthetic one, so a recording of a slow session from the field can be used to compare builds.
+ *
+ * <p>The benchmark replays the session at full speed.  Run the class directly to replay it once, at the recorded
+ * speed or at full speed, and print the stats of each action:</p>
+ * <pre>
+ * java -cp dist/benchmarks.jar com.codename1.cordova.ReplayBenchmark session.log [original|max]
+ * </pre>
+ * @author shannah
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+
+    /**
+     * Path of the recorded session.
+     */
+    @Param({"session.log"})
+    public String log;
+
+    private String recording;
+    private HeadlessHost host;
+    private BridgeReplay replay;
+
+    @Setup
+    public void load() throws IOException {
+        recording = read(log);
+    }
+
+    /**
+     * Each replay gets a fresh bridge, so that streaming callbacks left open by one replay don't
+     * accumulate in the next.
+     */
+    @Setup(Level.Invocation)
+    public void setup() {
+        host = new HeadlessHost();
+        replay = new BridgeReplay(host, recording);
+    }
+
+    /**
+     * The whole session, replayed back to back.
+     */
+    @Benchmark
+    public int session() throws InterruptedException {
+        replay.run(true);
+        host.runPending();
+        return host.getScriptCount();
+    }
+
+    private static String read(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(path).toPath()), "UTF-8");
+    }
+
+    /**
+     * Replays a session once and prints the time taken and the stats of each action.
+     * @param args The path of the log, and optionally <code>original</code> to keep the recorded timing
+     * or <code>max</code> to replay at full speed, which is the default.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: ReplayBenchmark <log> [original|max]");
+            System.exit(1);
+        }
+        final boolean maxSpeed = args.length < 2 || !"original".equals(args[1]);
+        final HeadlessHost host = new HeadlessHost();
+        final BridgeReplay replay = new BridgeReplay(host, read(args[0]));
+        final long[] elapsed = new long[1];
+        Thread player = new Thread() {
+            public void run() {
+                try {
+                    elapsed[0] = replay.run(maxSpeed);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        long start = System.currentTimeMillis();
+        player.start();
+        // Stand in for the EDT while the session plays.
+        while (player.isAlive()) {
+            host.runPending();
+            Thread.sleep(1);
+        }
+        host.runPending();
+        long total = System.currentTimeMillis() - start;
+
+        System.out.println(replay.getInvocationCount()+" calls, recorded over "+replay.getDuration()+"ms");
+        System.out.println("Replayed in "+total+"ms ("+elapsed[0]+"ms in run()), "
+                +host.getScriptCount()+" scripts, "+host.getScriptChars()+" chars");
+        BridgeStats.ActionStats[] stats = replay.getBridge().getBridgeStats().snapshot(false);
+        for (int i=0; i<stats.length; i++) {
+            System.out.println(stats[i]);
+        }
+        // The bridge's watchdog timer would keep the JVM alive until it idles out.
+        System.exit(0);
+    }
+}
@@ -15,10 +15,14 @@
  */
 package com.codename1.demos.cordova.plugins.camera;
 
-import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONException;
 import com.codename1.capture.Capture;
-import com.codename1.cordova.CordovaPlugin;
+import com.codename1.cordova.ActionOptions;
+import com.codename1.cordova.BlobStore;
+import com.codename1.cordova.CallbackContext;
+import com.codename1.cordova.ConfigurablePlugin;
+import com.codename1.cordova.CordovaArgs;
+import com.codename1.cordova.CordovaArgsPlugin;
 import com.codename1.io.FileSystemStorage;
 import com.codename1.io.Log;
 import com.codename1.io.Util;
@@ -41,7 +45,7 @@ import java.util.List;
  * 
  * @author shannah
  */
-public class CameraPlugin implements CordovaPlugin {
+public class CameraPlugin implements CordovaArgsPlugin, ConfigurablePlugin {
     
     private static final int DATA_URL = 0;              // Return base64 encoded string
     private static final int FILE_URI = 1;              // Return file uri (content://media/external/images/media/2 for Android)
@@ -91,53 +95,41 @@ public class CameraPlugin implements CordovaPlugin {
      * Executes the request and returns PluginResult.
      *
      * @param action            The action to execute.
-     * @param argsList              JSONArry of arguments for the plugin.
+     * @param args              Arguments for the plugin.
      * @param callbackContext   The callback id used when calling back into JavaScript.
      * @return                  A PluginResult object with a status and message.
      */
-    public boolean execute(String action, List argsList, Callback callbackContext) {
-        JSONArray args = new JSONArray(argsList);
+    public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) {
         //System.out.println("In camera plugin execute");
-        this.callbackContext = callbackContext;
 
         if (action.equals("takePicture")) {
              try {
-                 int srcType = CAMERA;
-                 int destType = FILE_URI;
-                 this.saveToPhotoAlbum = false;
-                 this.targetHeight = 0;
-                 this.targetWidth = 0;
-                 this.encodingType = JPEG;
-                 this.mediaType = PICTURE;
-                 this.mQuality = 80;
-                 
-                 this.mQuality = args.getInt(0);
-                 destType = (int)args.getInt(1);
-                 srcType = (int)args.getInt(2);
-                 this.targetWidth = (int)args.getInt(3);
-                 this.targetHeight = (int)args.getInt(4);
-                 this.encodingType = (int)args.getInt(5);
-                 this.mediaType = (int)args.getInt(6);
-                 this.allowEdit = (boolean)args.getBoolean(7);
-                 this.correctOrientation = (boolean)args.getBoolean(8);
-                 this.saveToPhotoAlbum = (boolean)args.getBoolean(9);
+                 // takePicture runs in the background, so calls can overlap.  Keep everything
+                 // for this call in the request rather than in fields.
+                 PictureRequest request = new PictureRequest(callbackContext);
+                 request.quality = args.getInt(0);
+                 request.returnType = args.getInt(1);
+                 int srcType = args.getInt(2);
+                 request.targetWidth = args.getInt(3);
+                 request.targetHeight = args.getInt(4);
+                 request.mediaType = args.getInt(6);
                  
                  // If the user specifies a 0 or smaller width/height
                  // make it -1 so later comparisons succeed
-                 if (this.targetWidth < 1) {
-                     this.targetWidth = -1;
+                 if (request.targetWidth < 1) {
+                     request.targetWidth = -1;
                  }
-                 if (this.targetHeight < 1) {
-                     this.targetHeight = -1;
+                 if (request.targetHeight < 1) {
+                     request.targetHeight = -1;
                  }
                  
                  try {
                      if (srcType == CAMERA) {
                          //System.out.println("Taking picture");
-                         this.takePicture(destType, encodingType);
+                         this.takePicture(request);
                      }
                      else if ((srcType == PHOTOLIBRARY) || (srcType == SAVEDPHOTOALBUM)) {
-                         this.getImage(srcType, destType, encodingType);
+                         this.getImage(request);
                      }
                  }
                  catch (IllegalArgumentException e)
@@ -160,6 +152,24 @@ public class CameraPlugin implements CordovaPlugin {
         return false;
     }
 
+    public boolean execute(String action, List args, Callback callback) {
+        return false;
+    }
+
+    /**
+     * Runs <code>takePicture</code> in the background.  The camera blocks the calling thread until
+     * a picture is taken, and a DATA_URL result reads and encodes the whole file.  The gallery is
+     * opened on the EDT.
+     * @param action The action.
+     * @return The options for the action.
+     */
+    public ActionOptions getActionOptions(String action) {
+        if ("takePicture".equals(action)) {
+            return new ActionOptions().setBackground(true);
+        }
+        return null;
+    }
+
     //--------------------------------------------------------------------------
     // LOCAL METHODS
     //--------------------------------------------------------------------------
@@ -181,7 +191,17 @@ public class CameraPlugin implements CordovaPlugin {
      * @param returnType        Set the type of image to return.
      */
     public void takePicture(int returnType, int encodingType) {
-        String path = Capture.capturePhoto(this.targetWidth, this.targetHeight);
+        takePicture(new PictureRequest(this, returnType));
+    }
+    
+    /**
+     * Takes a picture with the camera, and returns it to the request's callback.
+     * @param request The request.
+     */
+    private void takePicture(PictureRequest request) {
+        Callback callbackContext = request.callback;
+        int returnType = request.returnType;
+        String path = Capture.capturePhoto(request.targetWidth, request.targetHeight);
         if (path == null) {
             callbackContext.onSucess(null);
             return;
@@ -221,10 +241,18 @@ public class CameraPlugin implements CordovaPlugin {
      */
     // TODO: Images selected from SDCARD don't display correctly, but from CAMERA ALBUM do!
     // TODO: Images from kitkat filechooser not going into crop function
-    public void getImage(int srcType, final int returnType, int encodingType) {
+    public void getImage(int srcType, int returnType, int encodingType) {
+        getImage(new PictureRequest(this, returnType));
+    }
+    
+    /**
+     * Opens the gallery, and returns the picked image to the request's callback.
+     * @param request The request.
+     */
+    private void getImage(final PictureRequest request) {
         
         int galleryType = 0;
-        switch (mediaType) {
+        switch (request.mediaType) {
             case PICTURE:
                 galleryType = Display.GALLERY_IMAGE;
                 break;
@@ -237,70 +265,135 @@ public class CameraPlugin implements CordovaPlugin {
                         
         }
         
-        Display.getInstance().openGallery(new ActionListener(){
-            public void actionPerformed(ActionEvent evt) {
-           
-                FileSystemStorage fs = FileSystemStorage.getInstance();
-                String fsRoot = fs.getAppHomePath();
-                String tmp = fsRoot + fs.getFileSystemSeparator() + "tmp";
-                if (!fs.exists(tmp)) {
-                    fs.mkdir(tmp);
-                }
+        final int type = galleryType;
+        // Actions run in the background, but the gallery has to be opened on the EDT.  It calls back
+        // on the EDT too, and resizing the image and reading it for DATA_URL can take a while, so
+        // that is moved back to the background.
+        Display.getInstance().callSerially(new Runnable() {
+            public void run() {
+                Display.getInstance().openGallery(new ActionListener(){
+                    public void actionPerformed(ActionEvent evt) {
+                        final String path = (String)evt.getSource();
+                        Display.getInstance().scheduleBackgroundTask(new Runnable() {
+                            public void run() {
+                                imageSelected(request, path);
+                            }
+                        });
+                    }
+                }, type);
+            }
+        });
+        
+    }
 
-                String path = (String)evt.getSource();
-                if (path == null) {
-                    callbackContext.onSucess(path);
-                    return;
-                }
+    /**
+     * Handles an image picked from the gallery: resizes it if a target size was given, and returns it in the
+     * requested format.  Runs in the background.
+     * @param request The request.
+     * @param path The path of the image, or null if nothing was picked.
+     */
+    private void imageSelected(PictureRequest request, String path) {
+        Callback callbackContext = request.callback;
+        int returnType = request.returnType;
+        int targetWidth = request.targetWidth;
+        int targetHeight = request.targetHeight;
+        int mQuality = request.quality;
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        String fsRoot = fs.getAppHomePath();
+        String tmp = fsRoot + fs.getFileSystemSeparator() + "tmp";
+        if (!fs.exists(tmp)) {
+            fs.mkdir(tmp);
+        }
 
+        if (path == null) {
+            callbackContext.onSucess(path);
+            return;
+        }
+        boolean resized = false;
+
+
+        if (targetWidth > 0 || targetHeight > 0) {
+            int w = targetWidth > 0 ? targetWidth : -1;
+            int h = targetHeight > 0 ? targetHeight : -1;
+            String name = path.substring(path.lastIndexOf(fs.getFileSystemSeparator())+1);
+            String newPath = tmp + fs.getFileSystemSeparator() + System.currentTimeMillis() + name;
 
-                if (targetWidth > 0 || targetHeight > 0) {
-                    int w = targetWidth > 0 ? targetWidth : -1;
-                    int h = targetHeight > 0 ? targetHeight : -1;
-                    String name = path.substring(path.lastIndexOf(fs.getFileSystemSeparator())+1);
-                    String newPath = tmp + fs.getFileSystemSeparator() + System.currentTimeMillis() + name;
+            try {
+                ImageIO.getImageIO().save(path, fs.openOutputStream(newPath), ImageIO.FORMAT_JPEG, w, h, mQuality == 0 ? ((float)mQuality)/100f : 0.7f);
+                path = newPath;
+                resized = true;
+            } catch (IOException ex) {
+                callbackContext.onError(this, ex, 0, ex.getMessage());
+                return;
+            }
+
+        }
 
+        switch (returnType) {
+            case FILE_URI:
+            case NATIVE_URI:
+                if (resized) {
+                    // The resized copy is ours, so let the blob store delete it once
+                    // javascript releases it, or it is evicted.
                     try {
-                        ImageIO.getImageIO().save(path, fs.openOutputStream(newPath), ImageIO.FORMAT_JPEG, w, h, mQuality == 0 ? ((float)mQuality)/100f : 0.7f);
-                        path = newPath;
+                        path = BlobStore.getInstance().putFile(path, "image/jpeg", true).getURL();
                     } catch (IOException ex) {
+                        Log.e(ex);
                         callbackContext.onError(this, ex, 0, ex.getMessage());
                         return;
                     }
-
                 }
-
-                switch (returnType) {
-                    case FILE_URI:
-                    case NATIVE_URI:
-                        callbackContext.onSucess(path);
-                        break;
-                    case DATA_URL: {
-                        try {
-                            byte[] out = Util.readInputStream(FileSystemStorage.getInstance().openInputStream(path));
-                            callbackContext.onSucess(Base64.encode(out));
-                            return;
-                        } catch (IOException ex) {
-                            Log.e(ex);
-                            callbackContext.onError(this, ex, 0, ex.getMessage());
-                            return;
-                        }
-                    }
-                    default:
-                        callbackContext.onError(this, null, 0, "Invalid return type "+returnType);
-
-
+                callbackContext.onSucess(path);
+                break;
+            case DATA_URL: {
+                try {
+                    byte[] out = Util.readInputStream(FileSystemStorage.getInstance().openInputStream(path));
+                    callbackContext.onSucess(Base64.encode(out));
+                    return;
+                } catch (IOException ex) {
+                    Log.e(ex);
+                    callbackContext.onError(this, ex, 0, ex.getMessage());
+                    return;
                 }
             }
-            
-            
-        }, galleryType);
-        
+            default:
+                callbackContext.onError(this, null, 0, "Invalid return type "+returnType);
+
+
+        }
     }
 
     public boolean execute(String action, String jsonArgs, Callback callback) {
         return false;
     }
+    
+    /**
+     * The options and callback of a single <code>takePicture</code> call.
+     */
+    private static class PictureRequest {
+        final Callback callback;
+        int returnType = FILE_URI;
+        int targetWidth = -1;
+        int targetHeight = -1;
+        int quality = 80;
+        int mediaType = PICTURE;
+        
+        PictureRequest(Callback callback) {
+            this.callback = callback;
+        }
+        
+        /**
+         * Creates a request from the plugin's fields, for the public methods that use them.
+         */
+        PictureRequest(CameraPlugin plugin, int returnType) {
+            this(plugin.callbackContext);
+            this.returnType = returnType;
+            targetWidth = plugin.targetWidth;
+            targetHeight = plugin.targetHeight;
+            quality = plugin.mQuality;
+            mediaType = plugin.mediaType;
+        }
+    }
 
 
   /**
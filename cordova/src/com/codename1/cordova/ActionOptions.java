@@ -0,0 +1,187 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * Options that control how {@link CordovaApplication} runs a plugin action.
+ *
+ * <p>Options can be declared by the plugin itself, by implementing {@link ConfigurablePlugin}, or by the
+ * application using {@link CordovaApplication#setActionOptions(java.lang.String, java.lang.String, com.codename1.cordova.ActionOptions) }.
+ * Options set by the application take precedence.</p>
+ * @author shannah
+ */
+public class ActionOptions {
+
+    /**
+     * Whether the action runs on a background thread.
+     */
+    private boolean background;
+
+    /**
+     * Milliseconds without a result before the call times out.
+     */
+    private int timeout;
+
+    /**
+     * Milliseconds that a result of the action can be reused for.
+     */
+    private int cacheTTL;
+
+    /**
+     * The priority of calls to the action.
+     */
+    private Priority priority = Priority.NORMAL;
+
+    /**
+     * Whether identical calls that are in flight at the same time share one invocation.
+     */
+    private boolean coalesce;
+
+    /**
+     * Sets whether the action should run on a background thread rather than on the EDT.
+     * Background actions run on the plugin's {@link PluginExecutor}, and may call their callback
+     * from that thread.  Use this for actions that do I/O or other slow work.
+     * @param background True to run the action in the background.
+     * @return Self for chaining.
+     */
+    public ActionOptions setBackground(boolean background) {
+        this.background = background;
+        return this;
+    }
+
+    /**
+     * Checks whether the action runs on a background thread.
+     * @return True if the action runs in the background.
+     */
+    public boolean isBackground() {
+        return background;
+    }
+
+    /**
+     * Sets how long a call to the action can go without a result before it times out.  A call that
+     * times out receives a {@link CordovaApplication.Result#TIMEOUT} error in javascript, which frees its
+     * callback, and the plugin is notified through the cancel listeners of its {@link CallbackContext}.
+     * For actions that stream results, the timeout applies to the time between results.
+     * Timeouts are checked a few times a second, so they aren't exact.
+     * @param timeout The timeout in milliseconds.  0 for no timeout, which is the default.
+     * @return Self for chaining.
+     */
+    public ActionOptions setTimeout(int timeout) {
+        this.timeout = timeout < 0 ? 0 : timeout;
+        return this;
+    }
+
+    /**
+     * Gets how long a call to the action can go without a result before it times out.
+     * @return The timeout in milliseconds.  0 for no timeout.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Marks the action as cacheable.  Use this for actions whose result only depends on their arguments
+     * and doesn't change often, such as device info or capability checks.  The first successful final
+     * result of a call is kept for the given time, and later calls with the same arguments get it without the
+     * plugin being invoked.  The result is cached on both sides of the bridge, so repeated calls
+     * from javascript don't cross the bridge at all.
+     *
+     * <p>Cached results can be dropped early with {@link CordovaApplication#invalidateCache(java.lang.String, java.lang.String) }
+     * or <code>cordova.require('cordova/exec').invalidateCache(service, action)</code>.  Results over 64K
+     * characters of JSON aren't cached.</p>
+     * @param cacheTTL How long a result can be reused, in milliseconds.  0 to not cache results, which is the default.
+     * @return Self for chaining.
+     */
+    public ActionOptions setCacheTTL(int cacheTTL) {
+        this.cacheTTL = cacheTTL < 0 ? 0 : cacheTTL;
+        return this;
+    }
+
+    /**
+     * Gets how long a result of the action can be reused.
+     * @return The time in milliseconds.  0 if results aren't cached.
+     */
+    public int getCacheTTL() {
+        return cacheTTL;
+    }
+
+    /**
+     * Sets the priority of the action.  Calls are run on the EDT highest priority first, so that a call
+     * the user is waiting on isn't stuck behind a large batch of background work.  Javascript can override
+     * this for individual calls with <code>cordova.require('cordova/exec').withPriority(priority, fn)</code>.
+     * Background actions are dispatched to their {@link PluginExecutor} in the same order.
+     * @param priority The priority.  Default is {@link Priority#NORMAL}.
+     * @return Self for chaining.
+     */
+    public ActionOptions setPriority(Priority priority) {
+        this.priority = priority == null ? Priority.NORMAL : priority;
+        return this;
+    }
+
+    /**
+     * Gets the priority of the action.
+     * @return The priority.
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets whether identical calls to the action share one invocation.  While a call is waiting for its
+     * first result, further calls with the same arguments join it instead of invoking the plugin again, and
+     * the result is delivered to all of them together.  Use this for idempotent actions that a page tends to
+     * call from several places at once, such as reading the current position.
+     *
+     * <p>A call that joins another receives every result that the plugin sends, including the later results
+     * of a streaming call.  Cancelling a call that others have joined only cancels the plugin
+     * once all of them have been cancelled.</p>
+     * @param coalesce True to share invocations between identical calls.  Default is false.
+     * @return Self for chaining.
+     */
+    public ActionOptions setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+        return this;
+    }
+
+    /**
+     * Checks whether identical calls to the action share one invocation.
+     * @return True if identical calls are coalesced.
+     */
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    /**
+     * Priority classes for exec calls.  Calls that have been queued for a while are moved up a class,
+     * so lower priority calls still get to run under a steady stream of higher priority ones.
+     */
+    public static enum Priority {
+        /**
+         * Calls that the user is waiting on, e.g. in response to a tap.
+         */
+        HIGH,
+
+        /**
+         * The default.
+         */
+        NORMAL,
+
+        /**
+         * Background work such as syncing or prefetching.
+         */
+        LOW
+    }
+}
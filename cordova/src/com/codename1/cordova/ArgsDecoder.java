@@ -0,0 +1,193 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.io.JSONParser;
+import com.codename1.util.Base64;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Decodes the JSON argument array of an exec call into a List.
+ *
+ * <p>The JSON string is parsed directly from its characters in a single pass.  Objects become LinkedHashMaps
+ * (keeping their key order), arrays become ArrayLists, and numbers become Doubles (or Longs for whole numbers if
+ * {@link JSONParser#isUseLongs() } is set).  Objects of the form <code>{"CDVType":"ArrayBuffer","data":"..."}</code>
+ * are decoded to <code>byte[]</code> as they are read.</p>
+ *
+ * <p>{@link #decode(java.lang.String) } produces the same types that {@link JSONParser} gave List-variant plugins,
+ * so <code>true</code>/<code>false</code> become the Strings <code>"true"</code>/<code>"false"</code>.
+ * {@link #readValue(com.codename1.cordova.JSONScanner) } returns them as Booleans.</p>
+ *
+ * <p>Decoding keeps no shared state, so it is safe to call from any thread.</p>
+ * @author shannah
+ */
+final class ArgsDecoder {
+
+    private ArgsDecoder() {
+
+    }
+
+    /**
+     * Decodes a JSON array of arguments for {@link CordovaPlugin#execute(java.lang.String, java.util.List, com.codename1.util.Callback) }.
+     * @param json The JSON array.  May be null, in which case an empty list is returned.
+     * @return The arguments.
+     * @throws IllegalArgumentException If the JSON is malformed or isn't an array.
+     */
+    static List decode(String json) {
+        if (json == null) {
+            return new ArrayList();
+        }
+        JSONScanner scanner = new JSONScanner(json);
+        if (scanner.peek() != '[') {
+            throw scanner.error("Expected array");
+        }
+        List out = readArray(scanner, true);
+        if (scanner.peek() != -1) {
+            throw scanner.error("Unexpected trailing characters");
+        }
+        return out;
+    }
+
+    /**
+     * Reads the next value.  Booleans are returned as Booleans.
+     */
+    static Object readValue(JSONScanner scanner) {
+        return readValue(scanner, false);
+    }
+
+    /**
+     * Reads the next value.
+     * @param stringBooleans True to return booleans as <code>"true"</code>/<code>"false"</code> like {@link JSONParser}.
+     */
+    private static Object readValue(JSONScanner scanner, boolean stringBooleans) {
+        int c = scanner.peek();
+        switch (c) {
+            case '"':
+                return scanner.readString();
+            case '[':
+                return readArray(scanner, stringBooleans);
+            case '{':
+                return readObject(scanner, stringBooleans);
+            case 't':
+                scanner.skipLiteral("true");
+                return stringBooleans ? (Object)"true" : Boolean.TRUE;
+            case 'f':
+                scanner.skipLiteral("false");
+                return stringBooleans ? (Object)"false" : Boolean.FALSE;
+            case 'n':
+                scanner.skipLiteral("null");
+                return null;
+            case -1:
+                throw scanner.error("Unexpected end of input");
+            default:
+                return readNumber(scanner);
+        }
+    }
+
+    /**
+     * Reads an array.  The scanner must be positioned on the opening bracket.
+     */
+    private static List readArray(JSONScanner scanner, boolean stringBooleans) {
+        scanner.expect('[');
+        ArrayList out = new ArrayList();
+        if (scanner.consume(']')) {
+            return out;
+        }
+        do {
+            out.add(readValue(scanner, stringBooleans));
+        } while (scanner.consume(','));
+        scanner.expect(']');
+        return out;
+    }
+
+    /**
+     * Reads an object.  ArrayBuffer objects are returned as <code>byte[]</code>.
+     */
+    private static Object readObject(JSONScanner scanner, boolean stringBooleans) {
+        scanner.expect('{');
+        LinkedHashMap out = new LinkedHashMap();
+        if (scanner.consume('}')) {
+            return out;
+        }
+        do {
+            if (scanner.peek() != '"') {
+                throw scanner.error("Expected property name");
+            }
+            String key = scanner.readString();
+            scanner.expect(':');
+            out.put(key, readValue(scanner, stringBooleans));
+        } while (scanner.consume(','));
+        scanner.expect('}');
+
+        if (out.size() == 2 && "ArrayBuffer".equals(out.get("CDVType"))) {
+            Object data = out.get("data");
+            if (data instanceof String) {
+                return decodeBase64((String)data);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Reads a number.
+     */
+    private static Object readNumber(JSONScanner scanner) {
+        String json = scanner.getJSON();
+        int len = json.length();
+        int start = scanner.getPosition();
+        int pos = start;
+        boolean whole = true;
+        while (pos < len) {
+            char ch = json.charAt(pos);
+            if (ch >= '0' && ch <= '9' || ch == '-' || ch == '+') {
+                pos++;
+            } else if (ch == '.' || ch == 'e' || ch == 'E') {
+                whole = false;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos == start) {
+            throw scanner.error("Unexpected character '"+json.charAt(pos)+"'");
+        }
+        String num = json.substring(start, pos);
+        scanner.setPosition(pos);
+        try {
+            if (whole && JSONParser.isUseLongs()) {
+                return new Long(Long.parseLong(num));
+            }
+            return new Double(Double.parseDouble(num));
+        } catch (NumberFormatException ex) {
+            throw scanner.error("Bad number "+num);
+        }
+    }
+
+    /**
+     * Decodes a base64 string.  Base64 is plain ASCII, so chars are copied to bytes directly
+     * without going through a charset.
+     */
+    static byte[] decodeBase64(String data) {
+        int len = data.length();
+        byte[] ascii = new byte[len];
+        for (int i=0; i<len; i++) {
+            ascii[i] = (byte)data.charAt(i);
+        }
+        return Base64.decode(ascii, len);
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Log;
+import com.codename1.io.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps large binary results, such as photos and recordings, in files that javascript loads by URL, so
+ * that the data never crosses the bridge.
+ *
+ * <p>A plugin puts the bytes or file it produced in the store and sends the blob's URL as its result.
+ * Javascript can use the URL in <code>&lt;img src&gt;</code>, <code>&lt;audio src&gt;</code> or <code>XMLHttpRequest</code>,
+ * and releases it with <code>cordova.blobs.release(url)</code> when it is done with it:</p>
+ *
+ * <pre>
+ * BlobStore.Blob blob = BlobStore.getInstance().put(jpegBytes, "image/jpeg");
+ * callback.onSucess(blob.getURL());
+ * </pre>
+ *
+ * <p>The store keeps the total size of its blobs under a {@link #setMaxSize(long) budget}.  When a new blob
+ * goes over it, the least recently used blobs are evicted, and their files deleted, even if javascript hasn't
+ * released them.  Files left over from a previous run of the app are deleted the first time the store is used.</p>
+ *
+ * <p>The store is shared by all {@link CordovaApplication}s, and is thread-safe.</p>
+ * @author shannah
+ */
+public final class BlobStore {
+
+    /**
+     * Name of the directory, under the app home, where blobs are written.
+     */
+    private static final String BLOB_DIR = "cn1cordova-blobs";
+
+    private static BlobStore instance;
+
+    /**
+     * Blobs keyed by handle, in access order, so that the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<String,Blob> blobs = new LinkedHashMap<String,Blob>(16, 0.75f, true);
+
+    /**
+     * Handles of blobs whose file is outside the blob directory, keyed by URL.  The URLs of other
+     * blobs end with their handle.
+     */
+    private final HashMap<String,String> external = new HashMap<String,String>();
+
+    /**
+     * The directory that blobs are written to, ending with a separator.
+     */
+    private final String dir;
+
+    /**
+     * Maximum total size of the blobs, in bytes.
+     */
+    private long maxSize = 64 * 1024 * 1024;
+
+    /**
+     * Total size of the blobs, in bytes.
+     */
+    private long size;
+
+    /**
+     * Counter used to generate handles.
+     */
+    private int nextId;
+
+    /**
+     * Number of blobs that were evicted before javascript released them.
+     */
+    private long evictedCount;
+
+    private BlobStore() {
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        dir = fs.getAppHomePath() + BLOB_DIR + "/";
+        String path = dir.substring(0, dir.length()-1);
+        try {
+            if (fs.exists(path)) {
+                String[] leftovers = fs.listFiles(path);
+                for (int i=0; i<leftovers.length; i++) {
+                    fs.delete(dir + leftovers[i]);
+                }
+            } else {
+                fs.mkdir(path);
+            }
+        } catch (IOException ex) {
+            Log.e(ex);
+        }
+    }
+
+    /**
+     * Gets the blob store.
+     * @return The blob store.
+     */
+    public static synchronized BlobStore getInstance() {
+        if (instance == null) {
+            instance = new BlobStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Writes bytes to a new blob.
+     * @param data The bytes.
+     * @param mimeType The MIME type of the data, e.g. <code>image/jpeg</code>.  May be null.
+     * @return The blob.
+     * @throws IOException If the file can't be written.
+     */
+    public Blob put(byte[] data, String mimeType) throws IOException {
+        String handle = newHandle(mimeType);
+        String path = dir + handle;
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        OutputStream out = null;
+        try {
+            out = fs.openOutputStream(path);
+            out.write(data);
+            out.close();
+            out = null;
+        } catch (IOException ex) {
+            Util.cleanup(out);
+            fs.delete(path);
+            throw ex;
+        }
+        return add(new Blob(handle, path, data.length, mimeType, true));
+    }
+
+    /**
+     * Adds an existing file as a blob.
+     *
+     * <p>A file that the store owns is moved into the blob directory, so that its URL identifies the blob, and it is
+     * deleted with the other leftovers if the app exits before it is released.  Other files stay where they are, and
+     * the blob's URL is their path.</p>
+     * @param path The path of the file, in {@link FileSystemStorage}.
+     * @param mimeType The MIME type of the file.  May be null.
+     * @param owned True if the store should delete the file when the blob is released or evicted.  Use this
+     * for temporary files that the plugin created, so that they are cleaned up.
+     * @return The blob.
+     * @throws IOException If an owned file can't be moved into the blob directory.  The file is left where it was.
+     */
+    public Blob putFile(String path, String mimeType, boolean owned) throws IOException {
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        String handle = newHandle(mimeType);
+        if (owned) {
+            String target = dir + handle;
+            move(path, target);
+            path = target;
+        }
+        long length = fs.getLength(path);
+        return add(new Blob(handle, path, length < 0 ? 0 : length, mimeType, owned));
+    }
+
+    /**
+     * Moves a file into the blob directory.  Files in the same directory are renamed, and others are copied.
+     */
+    private void move(String path, String target) throws IOException {
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        int slash = path.lastIndexOf('/');
+        if (slash >= 0 && path.substring(0, slash+1).equals(dir)) {
+            fs.rename(path, target.substring(dir.length()));
+            return;
+        }
+        InputStream in = fs.openInputStream(path);
+        OutputStream out;
+        try {
+            out = fs.openOutputStream(target);
+        } catch (IOException ex) {
+            Util.cleanup(in);
+            throw ex;
+        }
+        try {
+            // Closes both streams.
+            Util.copy(in, out);
+        } catch (IOException ex) {
+            fs.delete(target);
+            throw ex;
+        }
+        fs.delete(path);
+    }
+
+    /**
+     * Gets a blob, and marks it as recently used.
+     * @param handleOrURL The handle or URL of the blob.
+     * @return The blob, or null if there is none, e.g. because it was released or evicted.
+     */
+    public synchronized Blob get(String handleOrURL) {
+        return handleOrURL == null ? null : blobs.get(toHandle(handleOrURL));
+    }
+
+    /**
+     * Releases a blob.  Its file is deleted if the store owns it.
+     * @param handleOrURL The handle or URL of the blob.
+     * @return True if the blob was released.  False if there was no such blob.
+     */
+    public boolean release(String handleOrURL) {
+        Blob blob;
+        synchronized (this) {
+            blob = handleOrURL == null ? null : blobs.remove(toHandle(handleOrURL));
+            if (blob == null) {
+                return false;
+            }
+            removed(blob);
+        }
+        blob.delete();
+        return true;
+    }
+
+    /**
+     * Releases all blobs.
+     */
+    public void clear() {
+        Blob[] released;
+        synchronized (this) {
+            released = blobs.values().toArray(new Blob[blobs.size()]);
+            blobs.clear();
+            external.clear();
+            size = 0;
+        }
+        for (int i=0; i<released.length; i++) {
+            released[i].delete();
+        }
+    }
+
+    /**
+     * Sets the maximum total size of the blobs.  When it is exceeded, the least recently used
+     * blobs are evicted.  Default is 64MB.
+     * @param maxSize The maximum size in bytes.
+     */
+    public void setMaxSize(long maxSize) {
+        synchronized (this) {
+            this.maxSize = maxSize < 0 ? 0 : maxSize;
+        }
+        evict(null);
+    }
+
+    /**
+     * Gets the maximum total size of the blobs.
+     * @return The maximum size in bytes.
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the total size of the blobs.
+     * @return The size in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the number of blobs.
+     * @return The number of blobs.
+     */
+    public synchronized int getCount() {
+        return blobs.size();
+    }
+
+    /**
+     * Gets the number of blobs that were evicted to stay within the size budget, rather than released.
+     * A high count means javascript is holding on to URLs of files that may already be gone.
+     * @return The number of evicted blobs.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Adds a blob and evicts others if the store is over its budget.
+     */
+    private Blob add(Blob blob) {
+        synchronized (this) {
+            blobs.put(blob.handle, blob);
+            if (!blob.path.endsWith(blob.handle)) {
+                external.put(blob.path, blob.handle);
+            }
+            size += blob.size;
+        }
+        evict(blob);
+        return blob;
+    }
+
+    /**
+     * Evicts the least recently used blobs until the store is within its budget.
+     * @param keep A blob that isn't evicted, even if it is over the budget by itself.
+     */
+    private void evict(Blob keep) {
+        Blob[] evicted = null;
+        int count = 0;
+        synchronized (this) {
+            for (Iterator<Blob> it = blobs.values().iterator(); size > maxSize && it.hasNext();) {
+                Blob blob = it.next();
+                if (blob == keep) {
+                    continue;
+                }
+                it.remove();
+                removed(blob);
+                if (evicted == null) {
+                    evicted = new Blob[blobs.size() + 1];
+                }
+                evicted[count++] = blob;
+            }
+            evictedCount += count;
+        }
+        for (int i=0; i<count; i++) {
+            evicted[i].delete();
+        }
+    }
+
+    /**
+     * Updates the size and URL lookup for a blob that was removed.
+     */
+    private void removed(Blob blob) {
+        size -= blob.size;
+        if (!blob.path.endsWith(blob.handle)) {
+            external.remove(blob.path);
+        }
+    }
+
+    /**
+     * Creates a unique handle.  It is also the name of the blob's file, so it ends with an
+     * extension for the MIME type where one is known, which helps the web view guess the type.
+     */
+    private synchronized String newHandle(String mimeType) {
+        return "blob" + System.currentTimeMillis() + "-" + (++nextId) + extension(mimeType);
+    }
+
+    /**
+     * Gets the file extension for a MIME type.
+     */
+    private static String extension(String mimeType) {
+        if (mimeType == null) {
+            return "";
+        }
+        if ("image/jpeg".equals(mimeType)) {
+            return ".jpg";
+        }
+        if ("image/png".equals(mimeType)) {
+            return ".png";
+        }
+        if ("image/gif".equals(mimeType)) {
+            return ".gif";
+        }
+        if ("audio/mp4".equals(mimeType) || "audio/aac".equals(mimeType)) {
+            return ".m4a";
+        }
+        if ("audio/mpeg".equals(mimeType)) {
+            return ".mp3";
+        }
+        if ("audio/wav".equals(mimeType)) {
+            return ".wav";
+        }
+        if ("video/mp4".equals(mimeType)) {
+            return ".mp4";
+        }
+        return "";
+    }
+
+    /**
+     * Gets the handle from a handle or URL.
+     */
+    private String toHandle(String handleOrURL) {
+        String handle = external.get(handleOrURL);
+        if (handle != null) {
+            return handle;
+        }
+        int slash = handleOrURL.lastIndexOf('/');
+        return slash < 0 ? handleOrURL : handleOrURL.substring(slash+1);
+    }
+
+    /**
+     * A blob in the store.
+     */
+    public static final class Blob {
+        private final String handle;
+        private final String path;
+        private final long size;
+        private final String mimeType;
+        private final boolean owned;
+
+        Blob(String handle, String path, long size, String mimeType, boolean owned) {
+            this.handle = handle;
+            this.path = path;
+            this.size = size;
+            this.mimeType = mimeType;
+            this.owned = owned;
+        }
+
+        /**
+         * Gets the handle that identifies the blob.
+         * @return The handle.
+         */
+        public String getHandle() {
+            return handle;
+        }
+
+        /**
+         * Gets the URL that javascript loads the blob from.
+         * @return The URL.
+         */
+        public String getURL() {
+            return path;
+        }
+
+        /**
+         * Gets the path of the blob's file, in {@link FileSystemStorage}.
+         * @return The path.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the size of the blob.
+         * @return The size in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the MIME type of the blob.
+         * @return The MIME type, or null if it isn't known.
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Deletes the file if the store owns it.
+         */
+        void delete() {
+            if (owned) {
+                FileSystemStorage.getInstance().delete(path);
+            }
+        }
+    }
+}
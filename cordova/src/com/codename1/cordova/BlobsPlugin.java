@@ -0,0 +1,63 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import ca.weblite.codename1.json.JSONException;
+import com.codename1.util.Callback;
+import java.util.List;
+
+/**
+ * Built-in plugin that lets javascript release blobs in the {@link BlobStore}.
+ *
+ * <p>Actions:</p>
+ * <ul>
+ * <li><code>release</code> - Releases the blobs whose handles or URLs are passed as arguments.  Returns the
+ * number of blobs that were released.  Blobs that were already released or evicted are ignored.</li>
+ * </ul>
+ * @author shannah
+ */
+class BlobsPlugin implements CordovaPlugin {
+
+    /**
+     * The service name that javascript uses to talk to this plugin.
+     */
+    static final String SERVICE = "CN1Blobs";
+
+    public boolean execute(String action, String jsonArgs, Callback callback) {
+        if ("release".equals(action)) {
+            CordovaArgs args = new CordovaArgs(jsonArgs);
+            BlobStore store = BlobStore.getInstance();
+            int released = 0;
+            try {
+                for (int i=0; i<args.length(); i++) {
+                    if (store.release(args.optString(i, null))) {
+                        released++;
+                    }
+                }
+            } catch (JSONException ex) {
+                callback.onError(this, ex, 0, ex.getMessage());
+                return true;
+            }
+            callback.onSucess(new Integer(released));
+            return true;
+        }
+        return false;
+    }
+
+    public boolean execute(String action, List args, Callback callback) {
+        return false;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * The encoding used for binary results (<code>byte[]</code>) that are sent to javascript.
+ *
+ * <p>Results reach the web view as script strings, so binary data has to be encoded as text.
+ * {@link #JSON} uses the standard Cordova encoding, <code>{"CDVType":"ArrayBuffer","data":&lt;base64&gt;}</code>,
+ * which makes the data a third larger.  {@link #COMPACT} packs 15 bits into each character, using characters
+ * that never need escaping, so the data takes 2.5 times fewer characters than base64.  Scripts are handed to the
+ * web view as UTF-16, so this is a little over one byte per byte of data, compared to 2.7 for base64.</p>
+ *
+ * <p>Only results use the codec.  Calls from javascript are URL-encoded on their way to the native side, which
+ * turns each compact character into nine bytes, so binary arguments are always sent as base64.</p>
+ *
+ * <p>The codec is chosen when the bridge is installed: the app sets the codec it prefers with
+ * {@link CordovaApplication#setBridgeCodec(com.codename1.cordova.BridgeCodec) }, and it is used if the page's
+ * cordova.js can decode it.  Otherwise the bridge falls back to JSON.</p>
+ *
+ * <p>Other values in results are always sent as JSON, since the web view parses JSON faster than any decoder
+ * written in javascript.</p>
+ * @author shannah
+ */
+public abstract class BridgeCodec {
+
+    /**
+     * The standard Cordova encoding, with binary data as base64.  This is the default.
+     */
+    public static final BridgeCodec JSON = new BridgeCodec("json") {
+        void writeHead(StringBuilder sb, int len) {
+            sb.append("{\"CDVType\":\"ArrayBuffer\",\"data\":\"");
+        }
+
+        void writeData(StringBuilder sb, byte[] data, int off, int len) {
+            JSONResultWriter.writeBase64(sb, data, off, len);
+        }
+
+        void writeChunk(StringBuilder sb, byte[] data, int off, int len) {
+            sb.append('"');
+            JSONResultWriter.writeBase64(sb, data, off, len);
+            sb.append('"');
+        }
+    };
+
+    /**
+     * Binary data packed 15 bits per character.  Use this for apps that move a lot of binary data,
+     * such as images or audio, over the bridge.
+     */
+    public static final BridgeCodec COMPACT = new BridgeCodec("compact") {
+        void writeHead(StringBuilder sb, int len) {
+            sb.append("{\"CDVType\":\"CN1Bytes\",\"length\":").append(len).append(",\"data\":\"");
+        }
+
+        void writeData(StringBuilder sb, byte[] data, int off, int len) {
+            writeCompact(sb, data, off, len);
+        }
+
+        void writeChunk(StringBuilder sb, byte[] data, int off, int len) {
+            sb.append('"');
+            writeCompact(sb, data, off, len);
+            sb.append("\",\"compact\",").append(len);
+        }
+    };
+
+    /**
+     * The character that encodes 0 in the compact encoding.  Characters from here to
+     * <code>COMPACT_BASE + 0x7fff</code> are below the surrogates and need no escaping in JSON or javascript.
+     */
+    static final int COMPACT_BASE = 0x3000;
+
+    /**
+     * Number of bytes that are encoded between checks of the overflow.  A multiple of 15, so that
+     * the pieces of either encoding can be written one after another.
+     */
+    private static final int PIECE_SIZE = 15 * 1024;
+
+    /**
+     * The name that cordova.js knows the codec by.
+     */
+    private final String name;
+
+    BridgeCodec(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the name that cordova.js knows the codec by.
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Writes bytes as a complete JSON value that cordova.js turns into an ArrayBuffer.
+     * @param sb The buffer to write to.
+     * @param data The bytes.
+     * @param off Offset of the first byte to write.
+     * @param len Number of bytes to write.
+     */
+    void writeBytes(StringBuilder sb, byte[] data, int off, int len) {
+        writeBytes(sb, data, off, len, null);
+    }
+
+    /**
+     * Writes bytes as a complete JSON value, passing the output to an overflow as it grows.
+     * @param overflow The overflow, or null to write the value in one go.
+     * @see #writeBytes(java.lang.StringBuilder, byte[], int, int)
+     */
+    final void writeBytes(StringBuilder sb, byte[] data, int off, int len, JSONResultWriter.Overflow overflow) {
+        writeHead(sb, len);
+        if (overflow == null) {
+            writeData(sb, data, off, len);
+        } else {
+            int end = off + len;
+            for (int p=off; p<end; p+=PIECE_SIZE) {
+                writeData(sb, data, p, Math.min(PIECE_SIZE, end - p));
+                overflow.check(sb);
+            }
+        }
+        sb.append("\"}");
+    }
+
+    /**
+     * Writes the start of a JSON value written by {@link #writeBytes(java.lang.StringBuilder, byte[], int, int) },
+     * up to the opening quote of the encoded data.
+     * @param sb The buffer to write to.
+     * @param len Number of bytes in the value.
+     */
+    abstract void writeHead(StringBuilder sb, int len);
+
+    /**
+     * Writes encoded bytes, without quotes.
+     * @param sb The buffer to write to.
+     * @param data The bytes.
+     * @param off Offset of the first byte to write.
+     * @param len Number of bytes to write.
+     */
+    abstract void writeData(StringBuilder sb, byte[] data, int off, int len);
+
+    /**
+     * Writes one chunk of a large binary result as the arguments that follow the offset in
+     * <code>cordova.binaryChunkFromNative()</code>.
+     * @param sb The buffer to write to.
+     * @param data The bytes.
+     * @param off Offset of the first byte to write.
+     * @param len Number of bytes to write.
+     */
+    abstract void writeChunk(StringBuilder sb, byte[] data, int off, int len);
+
+    /**
+     * Writes bytes in the compact encoding: a stream of 15 bit values, high bit first, each
+     * written as one character.  The last value is padded with zero bits.
+     */
+    static void writeCompact(StringBuilder sb, byte[] data, int off, int len) {
+        sb.ensureCapacity(sb.length() + (len * 8 + 14) / 15);
+        int end = off + len;
+        int acc = 0;
+        int bits = 0;
+        for (int i=off; i<end; i++) {
+            acc = (acc << 8) | (data[i] & 0xff);
+            bits += 8;
+            if (bits >= 15) {
+                bits -= 15;
+                sb.append((char)(COMPACT_BASE + ((acc >> bits) & 0x7fff)));
+                acc &= (1 << bits) - 1;
+            }
+        }
+        if (bits > 0) {
+            sb.append((char)(COMPACT_BASE + ((acc << (15 - bits)) & 0x7fff)));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * The environment that a {@link CordovaBridge} runs in.  In an app this is the BrowserComponent
+ * and the EDT of a {@link CordovaApplication}.  Keeping these behind an interface lets the bridge
+ * be driven without a display, e.g. from benchmarks.
+ * @author shannah
+ */
+interface BridgeHost {
+
+    /**
+     * Executes a script in the web view.  Only called from the thread that runs the
+     * tasks passed to {@link #callSerially(java.lang.Runnable) }.
+     * @param script The javascript to execute.
+     */
+    public void executeScript(String script);
+
+    /**
+     * Runs a task on the EDT, after the events that are currently pending.
+     * @param task The task.
+     */
+    public void callSerially(Runnable task);
+}
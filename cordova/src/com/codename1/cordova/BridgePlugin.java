@@ -0,0 +1,74 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.util.Callback;
+import java.util.List;
+
+/**
+ * Built-in plugin that handles housekeeping requests from cordova.js, such as
+ * cancelling a callback that is receiving streamed results, or deleting the file that
+ * a large result was written to once it has been read (or reporting that it couldn't be read),
+ * or invalidating cached results.
+ * @author shannah
+ */
+class BridgePlugin implements CordovaPlugin {
+
+    /**
+     * The service name that cordova.js uses to talk to this plugin.
+     */
+    static final String SERVICE = "CN1Bridge";
+
+    /**
+     * The bridge that this plugin serves.
+     */
+    private final CordovaBridge bridge;
+
+    /**
+     * Creates the plugin.
+     * @param bridge The bridge.
+     */
+    BridgePlugin(CordovaBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    public boolean execute(String action, String jsonArgs, Callback callback) {
+        if ("cancel".equals(action)) {
+            JSONScanner scanner = new JSONScanner(jsonArgs);
+            scanner.expect('[');
+            bridge.cancelCallback(scanner.readString());
+            return true;
+        }
+        if ("invalidateCache".equals(action)) {
+            CordovaArgs args = new CordovaArgs(jsonArgs);
+            bridge.getResultCache().invalidate(args.optString(0, null), args.optString(1, null));
+            return true;
+        }
+        if ("releaseFile".equals(action)) {
+            bridge.getCallbackDispatcher().releaseSpill(new CordovaArgs(jsonArgs).optString(0, null));
+            return true;
+        }
+        if ("fileUnreadable".equals(action)) {
+            bridge.getCallbackDispatcher().spillUnreadable();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean execute(String action, List args, Callback callback) {
+        return false;
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.CordovaApplication.Result;
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Log;
+import com.codename1.io.Util;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Records the exec traffic of a bridge to a log, so that a session from the field can be replayed
+ * with {@link BridgeReplay}.
+ *
+ * <p>The log is a sequence of JSON arrays, one per line.  The first is a header, and each of the others
+ * is an entry whose first element is its type and whose second is the time in milliseconds since the
+ * recording started:</p>
+ * <ul>
+ * <li><code>["cn1bridge",1,startTime]</code> - The header, with the format version and the start time.</li>
+ * <li><code>["x",time,callbackId,service,action,args,priority]</code> - A single exec call.  <code>args</code>
+ * is the JSON array of arguments as it came from javascript, and <code>priority</code> the priority hint, or null.</li>
+ * <li><code>["b",time,batch]</code> - A batch of exec calls, as passed to <code>CN1ExecBatch</code>.</li>
+ * <li><code>["r",time,callbackId,status,keepCallback,message]</code> - A result sent by a plugin.
+ * <code>status</code> is the ordinal of the {@link Result}.</li>
+ * </ul>
+ *
+ * <p>Arguments and results are written as JSON, with binary data as base64.  Entries are buffered and written
+ * when the buffer fills up, so recording adds little to the cost of a call, but results are serialized a second
+ * time.  If the log can't be written, the error is logged and recording stops.</p>
+ * @author shannah
+ */
+final class BridgeRecorder {
+
+    /**
+     * Version of the log format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Number of characters that are buffered before they are written to the log.
+     */
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * The path of the log.
+     */
+    private final String path;
+
+    /**
+     * Writer for the log, or null once the recorder is closed.
+     */
+    private Writer out;
+
+    /**
+     * Entries that haven't been written yet.
+     */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * The time that the recording started.
+     */
+    private final long startTime;
+
+    /**
+     * Number of entries recorded.
+     */
+    private int count;
+
+    /**
+     * Creates a recorder and writes the header of the log.
+     * @param path The path of the log, in {@link FileSystemStorage}.  An existing file is replaced.
+     * @throws IOException If the log can't be opened.
+     */
+    BridgeRecorder(String path) throws IOException {
+        this.path = path;
+        startTime = System.currentTimeMillis();
+        out = new OutputStreamWriter(FileSystemStorage.getInstance().openOutputStream(path), "UTF-8");
+        buffer.append("[\"cn1bridge\",").append(VERSION).append(',').append(startTime).append("]\n");
+    }
+
+    /**
+     * Gets the path of the log.
+     * @return The path.
+     */
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the number of entries recorded.
+     * @return The number of entries.
+     */
+    synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Records a single exec call.
+     */
+    void recordExec(String callbackId, String service, String action, String argsJSON, String priority) {
+        long time = System.currentTimeMillis() - startTime;
+        synchronized (this) {
+            if (out == null) {
+                return;
+            }
+            buffer.append("[\"x\",").append(time).append(',');
+            quote(callbackId);
+            buffer.append(',');
+            quote(service);
+            buffer.append(',');
+            quote(action);
+            buffer.append(',').append(argsJSON == null || argsJSON.length() == 0 ? "[]" : argsJSON).append(',');
+            quote(priority);
+            endEntry();
+        }
+    }
+
+    /**
+     * Records a batch of exec calls.
+     */
+    void recordBatch(String batchJSON) {
+        long time = System.currentTimeMillis() - startTime;
+        synchronized (this) {
+            if (out == null) {
+                return;
+            }
+            buffer.append("[\"b\",").append(time).append(',').append(batchJSON);
+            endEntry();
+        }
+    }
+
+    /**
+     * Records a result sent by a plugin.
+     */
+    void recordResult(String callbackId, Result status, Object message, boolean keepCallback) {
+        long time = System.currentTimeMillis() - startTime;
+        // Serialize outside the lock, since results can be large.
+        StringBuilder json = new StringBuilder();
+        JSONResultWriter.write(json, message, BridgeCodec.JSON);
+        synchronized (this) {
+            if (out == null) {
+                return;
+            }
+            buffer.append("[\"r\",").append(time).append(',');
+            quote(callbackId);
+            buffer.append(',').append(status.ordinal()).append(',').append(keepCallback).append(',').append(json);
+            endEntry();
+        }
+    }
+
+    /**
+     * Writes the remaining entries and closes the log.
+     */
+    synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        flush();
+        if (out != null) {
+            Util.cleanup(out);
+            out = null;
+        }
+    }
+
+    private void quote(String value) {
+        if (value == null) {
+            buffer.append("null");
+        } else {
+            JSONResultWriter.quote(buffer, value);
+        }
+    }
+
+    /**
+     * Ends the current entry, and writes the buffer if it is full.
+     */
+    private void endEntry() {
+        buffer.append("]\n");
+        count++;
+        if (buffer.length() >= BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffer to the log.  Stops recording if it can't be written.
+     */
+    private void flush() {
+        try {
+            out.write(buffer.toString());
+            out.flush();
+        } catch (IOException ex) {
+            Log.e(ex);
+            Util.cleanup(out);
+            out = null;
+        }
+        buffer.setLength(0);
+    }
+}
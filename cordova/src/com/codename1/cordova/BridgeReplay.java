@@ -0,0 +1,443 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.CordovaApplication.Result;
+import com.codename1.util.Callback;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Replays a log written by {@link BridgeRecorder} through a bridge whose plugins are stubs that send back
+ * the recorded results.  This reproduces the exec traffic of a real session without the plugins,
+ * so that it can be profiled and compared between builds.
+ *
+ * <p>Calls are posted to the host in the recorded order, either at the recorded times or back to back.
+ * At the recorded speed, each stub also waits as long as the real plugin did before it sends each result.
+ * The built-in plugins are not stubbed, so event subscriptions and cancellations run for real.</p>
+ *
+ * <p>The replay bridge has no {@link ActionOptions}.  Set the ones the app uses on {@link #getBridge() }
+ * before replaying, so that background actions, caching and coalescing behave as they did when recording.</p>
+ * @author shannah
+ */
+final class BridgeReplay {
+
+    /**
+     * The host that calls are posted to.
+     */
+    private final BridgeHost host;
+
+    /**
+     * The bridge that the calls are replayed through.
+     */
+    private final CordovaBridge bridge;
+
+    /**
+     * The recorded calls, in order.
+     */
+    private final ArrayList<Call> calls = new ArrayList<Call>();
+
+    /**
+     * The recorded invocations, in order.  A batch has one invocation per command.
+     */
+    private final ArrayList<Invocation> invocations = new ArrayList<Invocation>();
+
+    /**
+     * Invocations that haven't been replayed yet, keyed by callback ID.  Callback IDs can repeat
+     * if the page was reloaded during the recording, so each ID has a queue.
+     */
+    private final Map<String,LinkedList<Invocation>> remaining = new HashMap<String,LinkedList<Invocation>>();
+
+    /**
+     * Timer used to send results at their recorded delays.
+     */
+    private Timer timer;
+
+    /**
+     * Number of results that are scheduled but haven't been sent.
+     */
+    private int pending;
+
+    /**
+     * Number of calls posted to the host that it hasn't run yet.
+     */
+    private int unposted;
+
+    /**
+     * Callbacks that a stub has been invoked with in the current replay.
+     */
+    private final HashSet<CallbackContext> claimed = new HashSet<CallbackContext>();
+
+    /**
+     * Whether the current replay runs at full speed.
+     */
+    private boolean maxSpeed;
+
+    /**
+     * Parses a log and creates the bridge to replay it through.
+     * @param host The host that the bridge talks to.
+     * @param log The log.
+     * @throws IllegalArgumentException If the log is malformed, or was written by a newer version.
+     */
+    BridgeReplay(BridgeHost host, String log) {
+        this.host = host;
+        parse(log);
+        HashMap<String,CordovaPlugin> plugins = new HashMap<String,CordovaPlugin>();
+        StubPlugin stub = new StubPlugin();
+        for (int i=0; i<invocations.size(); i++) {
+            plugins.put(invocations.get(i).service, stub);
+        }
+        bridge = new CordovaBridge(host, plugins);
+    }
+
+    /**
+     * Gets the bridge that the calls are replayed through.
+     * @return The bridge.
+     */
+    CordovaBridge getBridge() {
+        return bridge;
+    }
+
+    /**
+     * Gets the number of exec calls in the log, counting each command of a batch.
+     * @return The number of calls.
+     */
+    int getInvocationCount() {
+        return invocations.size();
+    }
+
+    /**
+     * Gets the length of the recorded session.
+     * @return The time of the last call, in milliseconds since the recording started.
+     */
+    long getDuration() {
+        return calls.isEmpty() ? 0 : calls.get(calls.size()-1).time;
+    }
+
+    /**
+     * Replays the log.  At full speed, this returns as soon as all calls are posted to the host, and the results
+     * are sent as the host runs them.  At the recorded speed, it waits until the host has run every call, and the
+     * stubs have been invoked and have sent all their results.
+     * @param maxSpeed True to post calls back to back, and send results as soon as the stubs are invoked.
+     * False to keep the recorded timing.
+     * @return The time taken in milliseconds.
+     * @throws InterruptedException If the thread is interrupted while it waits.
+     */
+    long run(boolean maxSpeed) throws InterruptedException {
+        synchronized (this) {
+            this.maxSpeed = maxSpeed;
+            remaining.clear();
+            claimed.clear();
+            unposted = calls.size();
+            for (int i=0; i<invocations.size(); i++) {
+                Invocation invocation = invocations.get(i);
+                LinkedList<Invocation> queue = remaining.get(invocation.callbackId);
+                if (queue == null) {
+                    queue = new LinkedList<Invocation>();
+                    remaining.put(invocation.callbackId, queue);
+                }
+                queue.add(invocation);
+            }
+            if (!maxSpeed && timer == null) {
+                timer = new Timer();
+            }
+        }
+        long start = System.currentTimeMillis();
+        for (int i=0; i<calls.size(); i++) {
+            final Call call = calls.get(i);
+            if (!maxSpeed) {
+                long wait = start + call.time - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+            host.callSerially(new Runnable() {
+                public void run() {
+                    try {
+                        if (call.batch != null) {
+                            bridge.execBatch(call.batch);
+                        } else {
+                            bridge.exec(call.callbackId, call.service, call.action, call.args, call.priority, false);
+                        }
+                    } finally {
+                        synchronized (BridgeReplay.this) {
+                            unposted--;
+                            BridgeReplay.this.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+        if (!maxSpeed) {
+            synchronized (this) {
+                // Calls that are queued by the bridge don't notify us when they reach a stub, so poll for those.
+                while (unposted > 0 || pending > 0 || hasUnclaimed()) {
+                    wait(100);
+                }
+                timer.cancel();
+                timer = null;
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Parses the log.
+     */
+    private void parse(String log) {
+        JSONScanner scanner = new JSONScanner(log);
+        scanner.expect('[');
+        if (!"cn1bridge".equals(scanner.readString())) {
+            throw scanner.error("Not a bridge recording");
+        }
+        scanner.expect(',');
+        if (readLong(scanner) > BridgeRecorder.VERSION) {
+            throw scanner.error("Unsupported recording version");
+        }
+        while (scanner.consume(',')) {
+            scanner.skipValue();
+        }
+        scanner.expect(']');
+
+        // The invocation that results for each callback ID belong to.
+        HashMap<String,Invocation> current = new HashMap<String,Invocation>();
+        while (scanner.peek() != -1) {
+            scanner.expect('[');
+            String type = scanner.readString();
+            scanner.expect(',');
+            long time = readLong(scanner);
+            scanner.expect(',');
+            if ("x".equals(type)) {
+                Call call = new Call(time);
+                call.callbackId = scanner.readString();
+                scanner.expect(',');
+                call.service = scanner.readString();
+                scanner.expect(',');
+                call.action = scanner.readString();
+                scanner.expect(',');
+                call.args = readRaw(scanner);
+                scanner.expect(',');
+                call.priority = scanner.readString();
+                calls.add(call);
+                addInvocation(new Invocation(call.callbackId, call.service, time), current);
+            } else if ("b".equals(type)) {
+                Call call = new Call(time);
+                call.batch = readRaw(scanner);
+                calls.add(call);
+                JSONScanner batch = new JSONScanner(call.batch);
+                batch.expect('[');
+                if (!batch.consume(']')) {
+                    do {
+                        batch.expect('[');
+                        String callbackId = batch.readString();
+                        batch.expect(',');
+                        String service = batch.readString();
+                        while (batch.consume(',')) {
+                            batch.skipValue();
+                        }
+                        batch.expect(']');
+                        addInvocation(new Invocation(callbackId, service, time), current);
+                    } while (batch.consume(','));
+                }
+            } else if ("r".equals(type)) {
+                Invocation invocation = current.get(scanner.readString());
+                scanner.expect(',');
+                int status = (int)readLong(scanner);
+                if (status < 0 || status >= Result.values().length) {
+                    throw scanner.error("Unknown status "+status);
+                }
+                scanner.expect(',');
+                boolean keepCallback = Boolean.TRUE.equals(ArgsDecoder.readValue(scanner));
+                scanner.expect(',');
+                Object message = ArgsDecoder.readValue(scanner);
+                if (invocation != null) {
+                    invocation.results.add(new Response(time - invocation.time, Result.values()[status], message, keepCallback));
+                }
+            } else {
+                throw scanner.error("Unknown entry type "+type);
+            }
+            while (scanner.consume(',')) {
+                // Fields added by later versions.
+                scanner.skipValue();
+            }
+            scanner.expect(']');
+        }
+    }
+
+    /**
+     * Checks whether any call that is waiting in the bridge, e.g. in its priority queue or a background executor,
+     * has yet to reach its stub and send recorded results.  Calls that were answered from the cache, joined
+     * another call or timed out while queued are no longer tracked, and never reach a stub.
+     */
+    private boolean hasUnclaimed() {
+        CallbackContext[] outstanding = bridge.getCallbackTracker().getOutstanding();
+        for (int i=0; i<outstanding.length; i++) {
+            if (claimed.contains(outstanding[i])) {
+                continue;
+            }
+            LinkedList<Invocation> queue = remaining.get(outstanding[i].getCallbackId());
+            if (queue != null && !queue.isEmpty() && !queue.getFirst().results.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addInvocation(Invocation invocation, HashMap<String,Invocation> current) {
+        invocations.add(invocation);
+        current.put(invocation.callbackId, invocation);
+    }
+
+    /**
+     * Reads a whole number.
+     */
+    private static long readLong(JSONScanner scanner) {
+        Object value = ArgsDecoder.readValue(scanner);
+        if (value instanceof Long) {
+            return ((Long)value).longValue();
+        }
+        if (value instanceof Double) {
+            return (long)((Double)value).doubleValue();
+        }
+        throw scanner.error("Expected number");
+    }
+
+    /**
+     * Reads a value as JSON.
+     */
+    private static String readRaw(JSONScanner scanner) {
+        scanner.peek();
+        int start = scanner.getPosition();
+        scanner.skipValue();
+        return scanner.getJSON().substring(start, scanner.getPosition());
+    }
+
+    /**
+     * Sends the recorded results of an invocation.
+     */
+    private void respond(CallbackContext callback) {
+        Invocation invocation;
+        Timer replayTimer;
+        synchronized (this) {
+            LinkedList<Invocation> queue = remaining.get(callback.getCallbackId());
+            invocation = queue == null || queue.isEmpty() ? null : queue.removeFirst();
+            if (invocation == null) {
+                // Not in the recording, e.g. because it joined a coalesced call.
+                return;
+            }
+            claimed.add(callback);
+            // No timer at full speed, or if the replay was invoked outside run().
+            replayTimer = maxSpeed ? null : timer;
+            if (replayTimer != null) {
+                pending += invocation.results.size();
+            }
+        }
+        for (int i=0; i<invocation.results.size(); i++) {
+            final Response response = invocation.results.get(i);
+            if (replayTimer == null) {
+                response.send(callback);
+                continue;
+            }
+            final CallbackContext target = callback;
+            replayTimer.schedule(new TimerTask() {
+                public void run() {
+                    try {
+                        response.send(target);
+                    } finally {
+                        synchronized (BridgeReplay.this) {
+                            pending--;
+                            BridgeReplay.this.notifyAll();
+                        }
+                    }
+                }
+            }, response.delay);
+        }
+    }
+
+    /**
+     * Stands in for every plugin in the recording.
+     */
+    private class StubPlugin implements CordovaPlugin {
+        public boolean execute(String action, String jsonArgs, Callback callback) {
+            respond((CallbackContext)callback);
+            return true;
+        }
+
+        public boolean execute(String action, List args, Callback callback) {
+            return false;
+        }
+    }
+
+    /**
+     * An exec call or batch.
+     */
+    private static class Call {
+        final long time;
+        String callbackId;
+        String service;
+        String action;
+        String args;
+        String priority;
+        String batch;
+
+        Call(long time) {
+            this.time = time;
+        }
+    }
+
+    /**
+     * One invocation of a plugin, and the results it sent.
+     */
+    private static class Invocation {
+        final String callbackId;
+        final String service;
+        final long time;
+        final ArrayList<Response> results = new ArrayList<Response>();
+
+        Invocation(String callbackId, String service, long time) {
+            this.callbackId = callbackId;
+            this.service = service;
+            this.time = time;
+        }
+    }
+
+    /**
+     * A recorded result.
+     */
+    private static class Response {
+        final long delay;
+        final Result status;
+        final Object message;
+        final boolean keepCallback;
+
+        Response(long delay, Result status, Object message, boolean keepCallback) {
+            this.delay = delay < 0 ? 0 : delay;
+            this.status = status;
+            this.message = message;
+            this.keepCallback = keepCallback;
+        }
+
+        void send(CallbackContext callback) {
+            callback.sendPluginResult(new PluginResult(status, message).setKeepCallback(keepCallback));
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records metrics about the exec calls that go through the bridge of a {@link CordovaApplication}.
+ *
+ * <p>For each service and action this records the number of calls, the number of errors, the size of
+ * the arguments and results (in characters of JSON), the number of timeouts and stragglers, and the
+ * latency from receiving the exec call to sending its first result.  Latencies are recorded in a histogram with the bucket bounds in
+ * {@link #LATENCY_BUCKETS}.</p>
+ *
+ * <p>Recording only allocates the first time a service/action pair is seen, so it is cheap enough to
+ * leave on in release builds.  Javascript can read the stats through the built-in <code>CN1BridgeStats</code>
+ * service, e.g. <code>cordova.exec(success, fail, 'CN1BridgeStats', 'snapshot', [false])</code>.</p>
+ * @author shannah
+ * @see CordovaApplication#getBridgeStats()
+ */
+public class BridgeStats {
+
+    /**
+     * Upper bounds (inclusive, in milliseconds) of the latency histogram buckets.  The histogram
+     * has one more bucket than this for latencies above the last bound.
+     */
+    public static final int[] LATENCY_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /**
+     * Stats keyed by service, then action.
+     */
+    private final Map<String,Map<String,ActionStats>> stats = new HashMap<String,Map<String,ActionStats>>();
+
+    /**
+     * Whether stats are being recorded.
+     */
+    private boolean enabled = true;
+
+    BridgeStats() {
+
+    }
+
+    /**
+     * Enables or disables recording.  Stats are recorded by default.
+     * @param enabled True to record stats.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Checks whether stats are being recorded.
+     * @return True if stats are being recorded.
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records an exec call.
+     * @param service The service.
+     * @param action The action.
+     * @param argBytes The size of the arguments JSON.
+     * @return The stats for the action, which the results of the call should be recorded to.  Null if
+     * recording is disabled.
+     */
+    synchronized ActionStats recordCall(String service, String action, int argBytes) {
+        if (!enabled) {
+            return null;
+        }
+        Map<String,ActionStats> serviceStats = stats.get(service);
+        if (serviceStats == null) {
+            serviceStats = new HashMap<String,ActionStats>();
+            stats.put(service, serviceStats);
+        }
+        ActionStats actionStats = serviceStats.get(action);
+        if (actionStats == null) {
+            actionStats = new ActionStats(service, action);
+            serviceStats.put(action, actionStats);
+        }
+        actionStats.recordCall(argBytes);
+        return actionStats;
+    }
+
+    /**
+     * Takes a snapshot of the stats.
+     * @param reset True to reset the stats after taking the snapshot.
+     * @return Copies of the stats for each service/action that has been called.
+     */
+    public synchronized ActionStats[] snapshot(boolean reset) {
+        ArrayList<ActionStats> out = new ArrayList<ActionStats>();
+        for (Iterator<Map<String,ActionStats>> it = stats.values().iterator(); it.hasNext();) {
+            for (Iterator<ActionStats> it2 = it.next().values().iterator(); it2.hasNext();) {
+                ActionStats s = it2.next();
+                out.add(s.copy(reset));
+            }
+        }
+        return out.toArray(new ActionStats[out.size()]);
+    }
+
+    /**
+     * Resets all stats.
+     */
+    public synchronized void reset() {
+        snapshot(true);
+    }
+
+    /**
+     * Converts a snapshot to Lists and Maps so that it can be sent to javascript.
+     * @param snapshot The snapshot.
+     * @return A list with one map per service/action.
+     */
+    static List<Map<String,Object>> toList(ActionStats[] snapshot) {
+        ArrayList<Map<String,Object>> out = new ArrayList<Map<String,Object>>();
+        for (int i=0; i<snapshot.length; i++) {
+            out.add(snapshot[i].toMap());
+        }
+        return out;
+    }
+
+    /**
+     * Stats for a single service/action.  Live instances are updated by the bridge; the instances returned
+     * by {@link BridgeStats#snapshot(boolean) } are copies that don't change.
+     */
+    public static class ActionStats {
+        private final String service;
+        private final String action;
+        private long count;
+        private long errorCount;
+        private long timeoutCount;
+        private long stragglerCount;
+        private long cacheHitCount;
+        private long coalescedCount;
+        private long resultCount;
+        private long argBytes;
+        private long resultBytes;
+        private long latencyCount;
+        private long totalLatency;
+        private long maxLatency;
+        private final long[] latencyHistogram = new long[LATENCY_BUCKETS.length + 1];
+
+        ActionStats(String service, String action) {
+            this.service = service;
+            this.action = action;
+        }
+
+        synchronized void recordCall(int argBytes) {
+            count++;
+            this.argBytes += argBytes;
+        }
+
+        /**
+         * Records a result sent for a call.
+         * @param resultBytes The size of the result JSON.
+         * @param error True if the result is an error.
+         * @param latency Time since the exec call was received, or -1 if latency shouldn't be recorded
+         * for this result (i.e. it isn't the first result).
+         */
+        synchronized void recordResult(int resultBytes, boolean error, long latency) {
+            resultCount++;
+            this.resultBytes += resultBytes;
+            if (error) {
+                errorCount++;
+            }
+            if (latency >= 0) {
+                latencyCount++;
+                totalLatency += latency;
+                if (latency > maxLatency) {
+                    maxLatency = latency;
+                }
+                int bucket = 0;
+                while (bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket]) {
+                    bucket++;
+                }
+                latencyHistogram[bucket]++;
+            }
+        }
+
+        synchronized void recordTimeout() {
+            timeoutCount++;
+        }
+
+        synchronized void recordStraggler() {
+            stragglerCount++;
+        }
+
+        synchronized void recordCacheHit() {
+            cacheHitCount++;
+        }
+
+        synchronized void recordCoalesced() {
+            coalescedCount++;
+        }
+
+        synchronized ActionStats copy(boolean reset) {
+            ActionStats out = new ActionStats(service, action);
+            out.count = count;
+            out.errorCount = errorCount;
+            out.timeoutCount = timeoutCount;
+            out.stragglerCount = stragglerCount;
+            out.cacheHitCount = cacheHitCount;
+            out.coalescedCount = coalescedCount;
+            out.resultCount = resultCount;
+            out.argBytes = argBytes;
+            out.resultBytes = resultBytes;
+            out.latencyCount = latencyCount;
+            out.totalLatency = totalLatency;
+            out.maxLatency = maxLatency;
+            System.arraycopy(latencyHistogram, 0, out.latencyHistogram, 0, latencyHistogram.length);
+            if (reset) {
+                count = 0;
+                errorCount = 0;
+                timeoutCount = 0;
+                stragglerCount = 0;
+                cacheHitCount = 0;
+                coalescedCount = 0;
+                resultCount = 0;
+                argBytes = 0;
+                resultBytes = 0;
+                latencyCount = 0;
+                totalLatency = 0;
+                maxLatency = 0;
+                for (int i=0; i<latencyHistogram.length; i++) {
+                    latencyHistogram[i] = 0;
+                }
+            }
+            return out;
+        }
+
+        synchronized Map<String,Object> toMap() {
+            HashMap<String,Object> out = new HashMap<String,Object>();
+            out.put("service", service);
+            out.put("action", action);
+            out.put("count", new Long(count));
+            out.put("errorCount", new Long(errorCount));
+            out.put("timeoutCount", new Long(timeoutCount));
+            out.put("stragglerCount", new Long(stragglerCount));
+            out.put("cacheHitCount", new Long(cacheHitCount));
+            out.put("coalescedCount", new Long(coalescedCount));
+            out.put("resultCount", new Long(resultCount));
+            out.put("argBytes", new Long(argBytes));
+            out.put("resultBytes", new Long(resultBytes));
+            out.put("totalLatency", new Long(totalLatency));
+            out.put("maxLatency", new Long(maxLatency));
+            out.put("averageLatency", new Double(getAverageLatency()));
+            ArrayList<Long> histogram = new ArrayList<Long>();
+            for (int i=0; i<latencyHistogram.length; i++) {
+                histogram.add(new Long(latencyHistogram[i]));
+            }
+            out.put("latencyHistogram", histogram);
+            return out;
+        }
+
+        /**
+         * Gets the service name.
+         * @return The service.
+         */
+        public String getService() {
+            return service;
+        }
+
+        /**
+         * Gets the action name.
+         * @return The action.
+         */
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * Gets the number of exec calls.
+         * @return The call count.
+         */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the number of error results.
+         * @return The error count.
+         */
+        public synchronized long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Gets the number of calls that timed out.  These are also counted as errors.
+         * @return The timeout count.
+         */
+        public synchronized long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        /**
+         * Gets the number of calls that were reported as stragglers.
+         * @return The straggler count.
+         * @see CordovaApplication#setStragglerThreshold(int)
+         */
+        public synchronized long getStragglerCount() {
+            return stragglerCount;
+        }
+
+        /**
+         * Gets the number of calls that were answered from the native result cache.  Calls answered
+         * from the javascript cache never reach the bridge, so they aren't counted.
+         * @return The cache hit count.
+         * @see ActionOptions#setCacheTTL(int)
+         */
+        public synchronized long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        /**
+         * Gets the number of calls that joined an identical call that was already in flight, instead of
+         * invoking the plugin.
+         * @return The coalesced call count.
+         * @see ActionOptions#setCoalesce(boolean)
+         */
+        public synchronized long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /**
+         * Gets the number of results sent.  This can be more than the call count for actions that stream results.
+         * @return The result count.
+         */
+        public synchronized long getResultCount() {
+            return resultCount;
+        }
+
+        /**
+         * Gets the total size of the arguments, in characters of JSON.
+         * @return The argument size.
+         */
+        public synchronized long getArgBytes() {
+            return argBytes;
+        }
+
+        /**
+         * Gets the total size of the results, in characters of JSON.
+         * @return The result size.
+         */
+        public synchronized long getResultBytes() {
+            return resultBytes;
+        }
+
+        /**
+         * Gets the sum of the latencies, in milliseconds.
+         * @return The total latency.
+         */
+        public synchronized long getTotalLatency() {
+            return totalLatency;
+        }
+
+        /**
+         * Gets the highest latency, in milliseconds.
+         * @return The maximum latency.
+         */
+        public synchronized long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /**
+         * Gets the average latency, in milliseconds.
+         * @return The average latency, or 0 if no results have been sent.
+         */
+        public synchronized double getAverageLatency() {
+            return latencyCount == 0 ? 0 : (double)totalLatency / latencyCount;
+        }
+
+        /**
+         * Gets the latency histogram.  Element <code>i</code> is the number of calls with a latency of at most
+         * <code>LATENCY_BUCKETS[i]</code> ms (and more than the previous bound).  The last element counts
+         * latencies above the last bound.
+         * @return A copy of the histogram.
+         */
+        public synchronized long[] getLatencyHistogram() {
+            long[] out = new long[latencyHistogram.length];
+            System.arraycopy(latencyHistogram, 0, out, 0, out.length);
+            return out;
+        }
+
+        /**
+         * Estimates a latency percentile from the histogram.
+         * @param percentile The percentile, between 0 and 100.
+         * @return The upper bound of the bucket that contains the percentile, or -1 if it is above the
+         * last bound.  0 if no latencies have been recorded.
+         */
+        public synchronized int getLatencyPercentile(double percentile) {
+            if (latencyCount == 0) {
+                return 0;
+            }
+            double target = latencyCount * percentile / 100.0;
+            long seen = 0;
+            for (int i=0; i<LATENCY_BUCKETS.length; i++) {
+                seen += latencyHistogram[i];
+                if (seen >= target) {
+                    return LATENCY_BUCKETS[i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return service+"."+action+": count="+getCount()+", errors="+getErrorCount()+", timeouts="+getTimeoutCount()+", argBytes="+getArgBytes()
+                    +", resultBytes="+getResultBytes()+", avgLatency="+getAverageLatency()+"ms, maxLatency="+getMaxLatency()+"ms";
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.ActionOptions.Priority;
+import com.codename1.util.Callback;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Built-in plugin that lets javascript read the {@link BridgeStats}.
+ *
+ * <p>Actions:</p>
+ * <ul>
+ * <li><code>snapshot</code> - Returns an array with one object per service/action.  Takes an optional
+ * boolean argument to reset the stats after taking the snapshot.</li>
+ * <li><code>reset</code> - Resets the stats, including the largest queue depths.</li>
+ * <li><code>outstanding</code> - Returns an array with one object per callback that is waiting for a result,
+ * with its <code>callbackId</code>, <code>service</code>, <code>action</code> and <code>age</code> in milliseconds.</li>
+ * <li><code>queues</code> - Returns an object with one entry per priority class (<code>high</code>, <code>normal</code>
+ * and <code>low</code>), each with the current <code>depth</code> and the <code>maxDepth</code> of its exec queue.</li>
+ * </ul>
+ * @author shannah
+ */
+class BridgeStatsPlugin implements CordovaPlugin {
+
+    /**
+     * The service name that javascript uses to talk to this plugin.
+     */
+    static final String SERVICE = "CN1BridgeStats";
+
+    /**
+     * The bridge whose stats are reported.
+     */
+    private final CordovaBridge bridge;
+
+    /**
+     * Creates the plugin.
+     * @param bridge The bridge.
+     */
+    BridgeStatsPlugin(CordovaBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    public boolean execute(String action, String jsonArgs, Callback callback) {
+        if ("snapshot".equals(action)) {
+            boolean reset = new CordovaArgs(jsonArgs).optBoolean(0, false);
+            callback.onSucess(BridgeStats.toList(bridge.getBridgeStats().snapshot(reset)));
+            return true;
+        }
+        if ("outstanding".equals(action)) {
+            CallbackContext[] outstanding = bridge.getCallbackTracker().getOutstanding();
+            long now = System.currentTimeMillis();
+            ArrayList<Map<String,Object>> out = new ArrayList<Map<String,Object>>();
+            for (int i=0; i<outstanding.length; i++) {
+                if (outstanding[i] == callback) {
+                    continue;
+                }
+                HashMap<String,Object> entry = new HashMap<String,Object>();
+                entry.put("callbackId", outstanding[i].getCallbackId());
+                entry.put("service", outstanding[i].getService());
+                entry.put("action", outstanding[i].getAction());
+                entry.put("age", new Long(now - outstanding[i].getStartTime()));
+                out.add(entry);
+            }
+            callback.onSucess(out);
+            return true;
+        }
+        if ("queues".equals(action)) {
+            ExecScheduler scheduler = bridge.getExecScheduler();
+            Priority[] priorities = {Priority.HIGH, Priority.NORMAL, Priority.LOW};
+            String[] names = {"high", "normal", "low"};
+            HashMap<String,Object> out = new HashMap<String,Object>();
+            for (int i=0; i<priorities.length; i++) {
+                HashMap<String,Object> entry = new HashMap<String,Object>();
+                entry.put("depth", new Integer(scheduler.getQueueDepth(priorities[i])));
+                entry.put("maxDepth", new Integer(scheduler.getMaxQueueDepth(priorities[i])));
+                out.put(names[i], entry);
+            }
+            callback.onSucess(out);
+            return true;
+        }
+        if ("reset".equals(action)) {
+            bridge.getBridgeStats().reset();
+            bridge.getExecScheduler().resetMaxQueueDepths();
+            callback.onSucess(null);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean execute(String action, List args, Callback callback) {
+        return false;
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.CordovaApplication.Result;
+import com.codename1.ui.events.ActionEvent;
+import com.codename1.ui.events.ActionListener;
+import com.codename1.util.Callback;
+import java.util.ArrayList;
+
+/**
+ * The callback that is passed to {@link CordovaPlugin#execute(java.lang.String, java.util.List, com.codename1.util.Callback) }
+ * for each exec call.
+ *
+ * <p>Plugins that only need to answer once can treat this as a plain {@link Callback}.  Plugins that stream results
+ * can cast it to <code>CallbackContext</code> and use {@link #sendPluginResult(com.codename1.cordova.PluginResult) } with
+ * <code>keepCallback</code> set to send any number of results to the same javascript callback.</p>
+ *
+ * <p>Javascript can cancel a streaming callback with <code>cordova.require('cordova/exec').cancel(callbackId)</code>,
+ * where <code>callbackId</code> is the value returned by <code>cordova.exec()</code>.  Once a callback is cancelled or
+ * has received its final result, further results are ignored.  Plugins should check {@link #isFinished() } or register
+ * a cancel listener to stop producing results.</p>
+ *
+ * <p>If the action has a {@link ActionOptions#setTimeout(int) timeout}, the call fails with a
+ * {@link Result#TIMEOUT} error when it goes that long without a result.  This is treated like a cancel.</p>
+ * @author shannah
+ */
+public class CallbackContext implements Callback {
+
+    /**
+     * The bridge that the exec call came from.
+     */
+    private final CordovaBridge bridge;
+
+    /**
+     * The javascript callback ID.
+     */
+    private final String callbackId;
+
+    /**
+     * Whether the final result has been sent, or the callback was cancelled.
+     */
+    private boolean finished;
+
+    /**
+     * Whether the callback was cancelled from javascript.
+     */
+    private boolean cancelled;
+
+    /**
+     * Listeners notified when the callback is cancelled.
+     */
+    private ArrayList<ActionListener> cancelListeners;
+
+    /**
+     * Stats that results are recorded to.  Null if stats aren't being recorded.
+     */
+    private BridgeStats.ActionStats stats;
+
+    /**
+     * The service that the exec call was for.
+     */
+    private final String service;
+
+    /**
+     * The action that the exec call was for.
+     */
+    private final String action;
+
+    /**
+     * Time that the exec call was received.
+     */
+    private final long startTime;
+
+    /**
+     * Time of the exec call or of the last result, whichever is later.
+     */
+    private long lastActivity;
+
+    /**
+     * Whether a result has been sent yet.
+     */
+    private boolean answered;
+
+    /**
+     * Whether a result with <code>keepCallback</code> set has been sent, so this is a stream.
+     */
+    private boolean streaming;
+
+    /**
+     * Milliseconds without a result before the call times out.  0 for no timeout.
+     */
+    private int timeout;
+
+    /**
+     * Whether this callback has been reported as a straggler.
+     */
+    private boolean straggler;
+
+    /**
+     * Key that the result is cached under.  Null if the result isn't cached.
+     */
+    private String cacheKey;
+
+    /**
+     * Milliseconds that the result can be reused for.
+     */
+    private int cacheTTL;
+
+    /**
+     * Key of the identical calls that can join this one.  Null if the action isn't coalesced.
+     */
+    private String coalesceKey;
+
+    /**
+     * Callback IDs of identical calls that joined this one.  Null until one does.
+     */
+    private ArrayList<String> joined;
+
+    /**
+     * Whether this call's own callback was cancelled while joined calls are still waiting.
+     */
+    private boolean detached;
+
+    /**
+     * Creates a context for an exec call.
+     * @param bridge The bridge that the exec call came from.
+     * @param callbackId The javascript callback ID.
+     * @param service The service that the call is for.
+     * @param action The action that the call is for.
+     */
+    CallbackContext(CordovaBridge bridge, String callbackId, String service, String action) {
+        this.bridge = bridge;
+        this.callbackId = callbackId;
+        this.service = service;
+        this.action = action;
+        this.startTime = System.currentTimeMillis();
+        this.lastActivity = startTime;
+    }
+
+    /**
+     * Sets the stats that results of this call are recorded to.
+     * @param stats The stats.
+     */
+    void setStats(BridgeStats.ActionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Caches the first successful final result of this call.
+     * @param cacheKey The key to cache the result under.
+     * @param cacheTTL How long the result can be reused, in milliseconds.
+     */
+    void setCache(String cacheKey, int cacheTTL) {
+        this.cacheKey = cacheKey;
+        this.cacheTTL = cacheTTL;
+    }
+
+    /**
+     * Lets identical calls join this one until it sends its first result.
+     * @param coalesceKey The key that identical calls have.
+     */
+    void setCoalesceKey(String coalesceKey) {
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * Gets the key that identical calls have.
+     * @return The key, or null if the action isn't coalesced.
+     */
+    String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    /**
+     * Adds an identical call, so that it receives the results of this one.
+     * @param callbackId The callback ID of the call.
+     * @return True if the call joined.  False if this call already has a result or was cancelled, in
+     * which case the call has to be invoked on its own.
+     */
+    synchronized boolean join(String callbackId) {
+        if (finished || answered) {
+            return false;
+        }
+        if (joined == null) {
+            joined = new ArrayList<String>();
+        }
+        joined.add(callbackId);
+        return true;
+    }
+
+    /**
+     * Removes a callback from the ones that receive the results of this call, if other calls are still
+     * waiting on it.
+     * @param callbackId The callback ID that javascript cancelled.
+     * @return True if the callback was removed.  False if it's the last one, in which case the call itself
+     * should be cancelled.
+     */
+    synchronized boolean leave(String callbackId) {
+        if (joined == null || finished) {
+            return false;
+        }
+        if (callbackId.equals(this.callbackId)) {
+            if (detached || joined.isEmpty()) {
+                return false;
+            }
+            detached = true;
+            return true;
+        }
+        if (!joined.remove(callbackId)) {
+            return false;
+        }
+        if (joined.isEmpty() && detached) {
+            // Nobody is waiting anymore.
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given callback ID was joined to this call.
+     */
+    synchronized boolean hasJoined(String callbackId) {
+        return joined != null && joined.contains(callbackId);
+    }
+
+    /**
+     * Gets the callback IDs that results are delivered to.
+     * @return The callback IDs, or null if results only go to this call's own callback.
+     */
+    private synchronized String[] getTargets() {
+        if (joined == null || joined.isEmpty()) {
+            return null;
+        }
+        String[] out = new String[joined.size() + (detached ? 0 : 1)];
+        int i = 0;
+        if (!detached) {
+            out[i++] = callbackId;
+        }
+        for (int j=0; j<joined.size(); j++) {
+            out[i++] = joined.get(j);
+        }
+        return out;
+    }
+
+    /**
+     * Sets how long the call can go without a result before it times out.
+     * @param timeout The timeout in milliseconds.  0 for no timeout.
+     */
+    void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Gets how long the call can go without a result before it times out.
+     * @return The timeout in milliseconds.  0 for no timeout.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Gets the service that the exec call was for.
+     * @return The service.
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * Gets the action that the exec call was for.
+     * @return The action.
+     */
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Gets the time that the exec call was received.
+     * @return The time in milliseconds.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets the time of the exec call or of its last result, whichever is later.
+     * @return The time in milliseconds.
+     */
+    public synchronized long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Gets the javascript callback ID that results are sent to.
+     * @return The callback ID.
+     */
+    public String getCallbackId() {
+        return callbackId;
+    }
+
+    /**
+     * Sends a result to javascript.  If the result has <code>keepCallback</code> set, the callback remains
+     * open for more results.  Otherwise this is the final result.
+     * @param result The result to send.
+     */
+    public void sendPluginResult(PluginResult result) {
+        boolean keepCallback = result.getKeepCallback();
+        boolean first;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            if (!keepCallback) {
+                finished = true;
+            } else {
+                streaming = true;
+            }
+            first = !answered;
+            answered = true;
+            lastActivity = now;
+        }
+        if (!keepCallback) {
+            bridge.callbackFinished(this);
+        } else if (first && coalesceKey != null) {
+            // Calls that arrive from now on would miss this result, so they get their own invocation.
+            bridge.coalescingEnded(this);
+        }
+        Object message = result.getMessage();
+        BridgeRecorder recorder = bridge.getRecorder();
+        if (recorder != null) {
+            recorder.recordResult(callbackId, result.getStatus(), message, keepCallback);
+        }
+        int ttl = 0;
+        if (cacheKey != null && first && !keepCallback && result.getStatus() == Result.OK) {
+            // Serialize once, and send the same JSON that is cached.
+            StringBuilder json = new StringBuilder();
+            JSONResultWriter.write(json, message, bridge.getCallbackDispatcher().getCodec());
+            if (json.length() <= ResultCache.MAX_RESULT_SIZE) {
+                message = new RawJSON(json.toString(), false);
+                bridge.getResultCache().put(cacheKey, service, action, message.toString(), cacheTTL);
+                ttl = cacheTTL;
+            }
+        }
+        send(result.getStatus(), message, keepCallback, first ? now - startTime : -1, ttl);
+    }
+
+    /**
+     * Sends a result through the dispatcher and records it in the stats.
+     * @param latency The latency to record, or -1 if this isn't the first result.
+     */
+    private void send(Result status, Object message, boolean keepCallback, long latency, int cacheTTL) {
+        String[] targets = getTargets();
+        int size = targets == null
+                ? bridge.getCallbackDispatcher().dispatch(callbackId, status.ordinal(), message, keepCallback, cacheTTL)
+                : bridge.getCallbackDispatcher().dispatch(targets, status.ordinal(), message, keepCallback, cacheTTL);
+        if (stats != null) {
+            stats.recordResult(size, status != Result.OK && status != Result.NO_RESULT, latency);
+        }
+    }
+
+    /**
+     * Fails the call because it had no result within its timeout.  Cancel listeners are notified so that
+     * the plugin can stop working on it, and javascript receives a {@link Result#TIMEOUT} error.
+     * Called on the watchdog thread.
+     */
+    void timeout() {
+        ActionListener[] listeners = null;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            cancelled = true;
+            if (cancelListeners != null) {
+                listeners = cancelListeners.toArray(new ActionListener[cancelListeners.size()]);
+            }
+        }
+        if (coalesceKey != null) {
+            bridge.coalescingEnded(this);
+        }
+        if (stats != null) {
+            stats.recordTimeout();
+        }
+        send(Result.TIMEOUT, "Timed out after "+timeout+"ms", false, -1, 0);
+        if (listeners != null) {
+            ActionEvent evt = new ActionEvent(this);
+            for (int i=0; i<listeners.length; i++) {
+                listeners[i].actionPerformed(evt);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a result with <code>keepCallback</code> set has been sent.  Streams can go without
+     * a result for any length of time, so they aren't reported as stragglers.
+     * @return True if this callback is a stream.
+     */
+    synchronized boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Marks this callback as a straggler.
+     * @return True if it hadn't already been marked.
+     */
+    synchronized boolean markStraggler() {
+        if (straggler) {
+            return false;
+        }
+        straggler = true;
+        if (stats != null) {
+            stats.recordStraggler();
+        }
+        return true;
+    }
+
+    /**
+     * Sends a final successful result to javascript.
+     * @param value The result value.
+     */
+    public void success(Object value) {
+        sendPluginResult(new PluginResult(Result.OK, value));
+    }
+
+    /**
+     * Sends a final error result to javascript.
+     * @param errorMessage The error message.
+     */
+    public void error(String errorMessage) {
+        sendPluginResult(new PluginResult(Result.ERROR, errorMessage));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onSucess(Object value) {
+        success(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onError(Object sender, Throwable err, int errorCode, String errorMessage) {
+        error(errorMessage);
+    }
+
+    /**
+     * Checks whether the final result has been sent, or the callback was cancelled.
+     * @return True if no more results will be delivered.
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Checks whether the callback was cancelled from javascript, or timed out.
+     * @return True if the callback was cancelled.
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Adds a listener to be notified when javascript cancels this callback.  The source of the event
+     * is this context.
+     * @param l The listener.
+     */
+    public synchronized void addCancelListener(ActionListener l) {
+        if (cancelListeners == null) {
+            cancelListeners = new ArrayList<ActionListener>();
+        }
+        cancelListeners.add(l);
+    }
+
+    /**
+     * Removes a cancel listener.
+     * @param l The listener.
+     */
+    public synchronized void removeCancelListener(ActionListener l) {
+        if (cancelListeners != null) {
+            cancelListeners.remove(l);
+        }
+    }
+
+    /**
+     * Cancels the callback.  Called when javascript cancels the callback.
+     */
+    void cancel() {
+        ActionListener[] listeners;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            cancelled = true;
+            if (cancelListeners != null) {
+                listeners = cancelListeners.toArray(new ActionListener[cancelListeners.size()]);
+            } else {
+                listeners = null;
+            }
+        }
+        if (coalesceKey != null) {
+            bridge.coalescingEnded(this);
+        }
+        if (listeners == null) {
+            return;
+        }
+        ActionEvent evt = new ActionEvent(this);
+        for (int i=0; i<listeners.length; i++) {
+            listeners[i].actionPerformed(evt);
+        }
+    }
+}
@@ -0,0 +1,982 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Log;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Delivers plugin results from native code back to the cordova javascript layer.
+ *
+ * <p>Rather than evaluating one script per callback, results are queued and flushed
+ * on the next EDT cycle as a single call to <code>cordova.callbacksFromNative()</code>
+ * that delivers the whole batch.  This makes bursts of exec calls much cheaper, since
+ * each script evaluation on the BrowserComponent carries a fixed overhead.</p>
+ *
+ * <p><code>byte[]</code> results arrive in javascript as ArrayBuffers, encoded with the {@link BridgeCodec} that was
+ * negotiated when the bridge was installed.  Results larger than the
+ * {@link #setBinaryChunkSize(int) binary chunk size} are sent in several scripts, each one encoding
+ * only its own chunk when it is flushed, so the whole result is never built as a single string.</p>
+ *
+ * <p>Other results whose JSON is longer than the {@link #setTextChunkSize(int) text chunk size} are sent
+ * in several scripts that javascript puts back together, so that no single script evaluation has to hold
+ * the whole result.  Such results are taken out of the batch in chunks while they are serialized, so the
+ * batch never holds more than one chunk of them.  Results longer than the {@link #setSpillThreshold(int) spill threshold}
+ * are instead written to a temporary file in {@link FileSystemStorage} on a background thread, as they are
+ * serialized, and javascript reads the file and then asks to have it deleted.  Results that are sent after
+ * such a result wait until its file has been written, so that javascript receives them in order.</p>
+ *
+ * <p>The dispatcher may be called from any thread.  Scripts are always executed on the EDT.</p>
+ * @author shannah
+ * @see CordovaApplication#getCallbackDispatcher()
+ */
+public class CallbackDispatcher {
+
+    /**
+     * The host whose web view results are delivered to.
+     */
+    private final BridgeHost host;
+
+    /**
+     * Maximum number of callbacks that will be delivered in a single script.
+     */
+    private int maxBatchSize = 50;
+
+    /**
+     * Number of milliseconds to wait before flushing, so that more results can
+     * accumulate.  0 flushes on the next EDT cycle.
+     */
+    private int flushLatency = 0;
+
+    /**
+     * Maximum number of bytes of a binary result that are sent in a single script.
+     */
+    private int binaryChunkSize = 192 * 1024;
+
+    /**
+     * The encoding of binary data in results.
+     */
+    private BridgeCodec codec = BridgeCodec.JSON;
+
+    /**
+     * Maximum number of characters of result JSON that are sent in a single script.
+     */
+    private int textChunkSize = 256 * 1024;
+
+    /**
+     * Results with more characters of JSON than this are written to a file.  0 disables this.
+     */
+    private int spillThreshold = 4 * 1024 * 1024;
+
+    /**
+     * Whether files left over from a previous run have been removed from the spill directory.  The
+     * directory is shared by every dispatcher in the app, so this is only done once.
+     */
+    private static boolean spillDirCleaned;
+
+    /**
+     * Counter used to name spill files.  Shared by every dispatcher, so that their files don't collide.
+     */
+    private static int nextSpillFileId;
+
+    /**
+     * Lock for cleaning the spill directory and naming spill files, which is done by the spill writers.
+     */
+    private static final Object spillDirLock = new Object();
+
+    /**
+     * Writes spill files in the background.  Created the first time a result is spilled.
+     */
+    private PluginExecutor spillExecutor;
+
+    /**
+     * Takes large results out of the batch while they are serialized.  Only used while holding the lock.
+     */
+    private final ResultSink sink = new ResultSink();
+
+    /**
+     * Name of the directory, under the app home, where large results are written.
+     */
+    private static final String SPILL_DIR = "cn1cordova-results";
+
+    /**
+     * Counter used to generate ids for chunked binary and text transfers.
+     */
+    private int nextTransferId;
+
+    /**
+     * The batch that is currently being built.  Reused between flushes.
+     */
+    private final StringBuilder batch = new StringBuilder();
+
+    /**
+     * Number of callbacks in the current batch.
+     */
+    private int batchCount;
+
+    /**
+     * Batches that have reached the maximum batch size, and are waiting to be
+     * flushed.  Contains Strings, BinaryTransfers for large binary results and TextTransfers for
+     * other large results.
+     */
+    private final ArrayList<Object> sealed = new ArrayList<Object>();
+
+    /**
+     * Buffer used on the EDT to build the scripts for binary chunks.
+     */
+    private final StringBuilder chunkBuffer = new StringBuilder();
+
+    /**
+     * Whether a flush has already been scheduled.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Timer used to delay flushes when a flush latency is set.
+     */
+    private Timer timer;
+
+    /**
+     * Runnable that performs the flush on the EDT.
+     */
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Creates a dispatcher that delivers callbacks to the web view of the given host.
+     * @param host The host running the cordova app.
+     */
+    CallbackDispatcher(BridgeHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Sends a successful result to javascript.
+     * @param callbackId The callback ID that the result is for.
+     * @param message The result.  May be null, a String, Number, Boolean, byte[], {@link RawJSON}, Map, List or array.
+     * @param keepCallback True if javascript should keep the callback for more results.
+     */
+    public void sendSuccess(String callbackId, Object message, boolean keepCallback) {
+        send(callbackId, null, true, CordovaApplication.Result.OK.ordinal(), message, keepCallback, 0);
+    }
+
+    /**
+     * Sends an error result to javascript.
+     * @param callbackId The callback ID that the result is for.
+     * @param status The status code.  One of the ordinals of {@link CordovaApplication.Result}.
+     * @param message The error message or value.
+     * @param keepCallback True if javascript should keep the callback for more results.
+     */
+    public void sendError(String callbackId, int status, Object message, boolean keepCallback) {
+        send(callbackId, null, false, status, message, keepCallback, 0);
+    }
+
+    /**
+     * Sends a result to javascript.  Results with status {@link CordovaApplication.Result#OK} or
+     * {@link CordovaApplication.Result#NO_RESULT} are delivered as successes.  All others are delivered
+     * as errors.
+     * @param callbackId The callback ID that the result is for.
+     * @param status The status code.  One of the ordinals of {@link CordovaApplication.Result}.
+     * @param message The result.  May be null, a String, Number, Boolean, byte[], {@link RawJSON}, Map, List or array.
+     * @param keepCallback True if javascript should keep the callback for more results.
+     */
+    public void sendResult(String callbackId, int status, Object message, boolean keepCallback) {
+        dispatch(callbackId, status, message, keepCallback);
+    }
+
+    /**
+     * Sends a result to javascript, as {@link #sendResult(java.lang.String, int, java.lang.Object, boolean) }.
+     * @return The size of the serialized result, in characters.
+     */
+    int dispatch(String callbackId, int status, Object message, boolean keepCallback) {
+        return dispatch(callbackId, status, message, keepCallback, 0);
+    }
+
+    /**
+     * Sends a result to javascript, and tells javascript how long it can reuse the result.
+     * @param cacheTTL How long javascript can answer calls with the same arguments with this result,
+     * in milliseconds.  0 if it can't.
+     * @return The size of the serialized result, in characters.
+     */
+    int dispatch(String callbackId, int status, Object message, boolean keepCallback, int cacheTTL) {
+        boolean success = status == CordovaApplication.Result.OK.ordinal() || status == CordovaApplication.Result.NO_RESULT.ordinal();
+        return send(callbackId, null, success, status, message, keepCallback, cacheTTL);
+    }
+
+    /**
+     * Sends one result to several callbacks, as in {@link #dispatch(java.lang.String, int, java.lang.Object, boolean, int) }.
+     * The result is serialized once, and javascript passes it to each of the callbacks.
+     * @param callbackIds The callback IDs that the result is for.
+     * @return The size of the serialized result, in characters.
+     */
+    int dispatch(String[] callbackIds, int status, Object message, boolean keepCallback, int cacheTTL) {
+        boolean success = status == CordovaApplication.Result.OK.ordinal() || status == CordovaApplication.Result.NO_RESULT.ordinal();
+        return send(null, callbackIds, success, status, message, keepCallback, cacheTTL);
+    }
+
+    /**
+     * Adds a result to the current batch and schedules a flush.  The result is serialized straight
+     * into the batch buffer, so no intermediate JSON objects or strings are created.
+     * @param callbackIds The callback IDs if the result is for several callbacks, otherwise null.
+     * @return The size of the serialized result, in characters.
+     * @throws RuntimeException If the message can't be serialized.  The batch is left as it was.
+     */
+    private int send(String callbackId, String[] callbackIds, boolean success, int status, Object message, boolean keepCallback, int cacheTTL) {
+        boolean immediate;
+        int size;
+        synchronized (this) {
+            int transferId = 0;
+            if (message instanceof byte[] && ((byte[])message).length > binaryChunkSize) {
+                // The chunks have to reach javascript before the callback that uses them.
+                if (batchCount > 0) {
+                    seal();
+                }
+                transferId = ++nextTransferId;
+                sealed.add(new BinaryTransfer(transferId, (byte[])message, binaryChunkSize, codec));
+            }
+            int mark = batch.length();
+            try {
+                batch.append(batchCount == 0 ? "cordova.callbacksFromNative([" : ",");
+                batch.append('[');
+                if (callbackIds == null) {
+                    JSONResultWriter.quote(batch, callbackId);
+                } else {
+                    batch.append('[');
+                    for (int i=0; i<callbackIds.length; i++) {
+                        if (i > 0) {
+                            batch.append(',');
+                        }
+                        JSONResultWriter.quote(batch, callbackIds[i]);
+                    }
+                    batch.append(']');
+                }
+                batch.append(',').append(success ? "true" : "false")
+                        .append(',').append(status)
+                        .append(',');
+                int start = batch.length();
+                if (transferId > 0) {
+                    batch.append("{\"CDVType\":\"CN1BinaryTransfer\",\"id\":").append(transferId).append('}');
+                    size = (((byte[])message).length + 2) / 3 * 4;
+                } else {
+                    sink.start = start;
+                    sink.limit = textChunkSize;
+                    JSONResultWriter.write(batch, message, codec, sink);
+                    size = batch.length() - start;
+                    if (sink.transfer != null || size > textChunkSize) {
+                        // Move the rest of the JSON out of the batch.  Its chunks are sent ahead of the batch,
+                        // and are inert until the callback that uses them is delivered.
+                        TextTransfer transfer = sink.finish(batch);
+                        size = transfer.length;
+                        sealed.add(transfer);
+                        batch.append("{\"CDVType\":\"CN1TextTransfer\",\"id\":").append(transfer.id).append('}');
+                    }
+                }
+                batch.append(',').append(keepCallback ? "true" : "false");
+                if (cacheTTL > 0) {
+                    batch.append(',').append(cacheTTL);
+                }
+                batch.append(']');
+            } catch (RuntimeException ex) {
+                sink.abort();
+                batch.setLength(mark);
+                throw ex;
+            }
+            batchCount++;
+            immediate = batchCount >= maxBatchSize;
+            if (immediate) {
+                seal();
+            }
+        }
+        scheduleFlush(immediate);
+        return size;
+    }
+
+    /**
+     * Closes the current batch and moves it to the list of sealed batches.
+     * Must be called while holding the lock.
+     */
+    private void seal() {
+        batch.append("])");
+        sealed.add(batch.toString());
+        batch.setLength(0);
+        batchCount = 0;
+    }
+
+    /**
+     * Schedules a flush if one isn't already pending.
+     * @param immediate True to flush on the next EDT cycle regardless of the flush latency.
+     */
+    private void scheduleFlush(boolean immediate) {
+        int latency;
+        synchronized (this) {
+            if (flushScheduled && !immediate) {
+                return;
+            }
+            flushScheduled = true;
+            latency = immediate ? 0 : flushLatency;
+            if (latency > 0 && timer == null) {
+                timer = new Timer();
+            }
+        }
+        if (latency > 0) {
+            timer.schedule(new TimerTask() {
+                public void run() {
+                    host.callSerially(flushTask);
+                }
+            }, latency);
+        } else {
+            host.callSerially(flushTask);
+        }
+    }
+
+    /**
+     * Delivers all pending callbacks to javascript.  This is called automatically,
+     * but can be called explicitly (on the EDT) if results must be delivered right away.
+     */
+    public void flush() {
+        Object[] scripts;
+        synchronized (this) {
+            flushScheduled = false;
+            if (batchCount > 0) {
+                seal();
+            }
+            if (sealed.isEmpty()) {
+                return;
+            }
+            scripts = sealed.toArray();
+            sealed.clear();
+        }
+        for (int i=0; i<scripts.length; i++) {
+            if (scripts[i] instanceof BinaryTransfer) {
+                sendChunks((BinaryTransfer)scripts[i]);
+            } else if (scripts[i] instanceof TextTransfer) {
+                TextTransfer transfer = (TextTransfer)scripts[i];
+                if (transfer.file == null) {
+                    sendChunks(transfer);
+                } else if (!transfer.file.isDone()) {
+                    // The rest waits until javascript can read the file.  The writer flushes again when it is done.
+                    synchronized (this) {
+                        for (int j=scripts.length-1; j>=i; j--) {
+                            sealed.add(0, scripts[j]);
+                        }
+                    }
+                    return;
+                } else if (transfer.file.isWritten()) {
+                    chunkBuffer.setLength(0);
+                    chunkBuffer.append("cordova.textFileFromNative(").append(transfer.id).append(',');
+                    JSONResultWriter.quote(chunkBuffer, transfer.file.path);
+                    chunkBuffer.append(')');
+                    host.executeScript(chunkBuffer.toString());
+                    chunkBuffer.setLength(0);
+                } else if (transfer.file.isFallback()) {
+                    // The file couldn't be created, so the writer kept the chunks.
+                    transfer.chunks.addAll(transfer.file.takeChunks());
+                    sendChunks(transfer);
+                } else {
+                    // The file couldn't be written.  Javascript fails the callback with IO_EXCEPTION.
+                    chunkBuffer.setLength(0);
+                    chunkBuffer.append("cordova.textFileFromNative(").append(transfer.id).append(",null,");
+                    JSONResultWriter.quote(chunkBuffer, transfer.file.getError());
+                    chunkBuffer.append(')');
+                    host.executeScript(chunkBuffer.toString());
+                    chunkBuffer.setLength(0);
+                }
+            } else {
+                host.executeScript((String)scripts[i]);
+            }
+        }
+    }
+
+    /**
+     * Sends the chunks of a large binary result, encoding each one just before it is sent.
+     */
+    private void sendChunks(BinaryTransfer transfer) {
+        byte[] data = transfer.data;
+        for (int off=0; off<data.length; off+=transfer.chunkSize) {
+            int len = Math.min(transfer.chunkSize, data.length - off);
+            chunkBuffer.setLength(0);
+            chunkBuffer.append("cordova.binaryChunkFromNative(").append(transfer.id)
+                    .append(',').append(data.length)
+                    .append(',').append(off)
+                    .append(',');
+            transfer.codec.writeChunk(chunkBuffer, data, off, len);
+            chunkBuffer.append(')');
+            host.executeScript(chunkBuffer.toString());
+        }
+        chunkBuffer.setLength(0);
+        if (chunkBuffer.capacity() > transfer.chunkSize * 2) {
+            // Don't hold on to a large buffer.
+            chunkBuffer.trimToSize();
+        }
+    }
+
+    /**
+     * Sends the chunks of a large result.
+     */
+    private void sendChunks(TextTransfer transfer) {
+        for (int i=0; i<transfer.chunks.size(); i++) {
+            chunkBuffer.setLength(0);
+            chunkBuffer.append("cordova.textChunkFromNative(").append(transfer.id).append(',');
+            JSONResultWriter.quote(chunkBuffer, transfer.chunks.get(i));
+            chunkBuffer.append(')');
+            host.executeScript(chunkBuffer.toString());
+        }
+        transfer.chunks.clear();
+        chunkBuffer.setLength(0);
+        if (chunkBuffer.capacity() > textChunkSize * 3) {
+            chunkBuffer.trimToSize();
+        }
+    }
+
+    /**
+     * Gets a new file to write a large result to.  Files left over from a previous run are removed
+     * from the directory the first time.
+     */
+    private static String newSpillPath() throws IOException {
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        String dir = fs.getAppHomePath() + SPILL_DIR;
+        synchronized (spillDirLock) {
+            if (!spillDirCleaned) {
+                spillDirCleaned = true;
+                if (fs.exists(dir)) {
+                    String[] leftovers = fs.listFiles(dir);
+                    for (int i=0; i<leftovers.length; i++) {
+                        fs.delete(dir + "/" + leftovers[i]);
+                    }
+                } else {
+                    fs.mkdir(dir);
+                }
+            }
+            return dir + "/" + (++nextSpillFileId) + ".json";
+        }
+    }
+
+    /**
+     * Stops writing results to files, because javascript couldn't read one.  Later large results are
+     * sent in chunks.
+     */
+    synchronized void spillUnreadable() {
+        if (spillThreshold > 0) {
+            Log.p("Javascript can't read result files.  Sending large results in chunks instead.");
+            spillThreshold = 0;
+        }
+    }
+
+    /**
+     * Runs a spill file's writer in the background.  Must be called while holding the lock.
+     */
+    private void startWriter(SpillFile file) {
+        if (spillExecutor == null) {
+            spillExecutor = new PluginExecutor("CN1CordovaSpill", 1, 16);
+        }
+        if (!spillExecutor.execute(file)) {
+            file.run();
+        }
+    }
+
+    /**
+     * Deletes a file that a large result was written to, once javascript has read it.
+     * @param path The path of the file.  Only files in the spill directory are deleted.
+     */
+    void releaseSpill(String path) {
+        if (path == null || path.indexOf("..") >= 0) {
+            return;
+        }
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        if (path.startsWith(fs.getAppHomePath() + SPILL_DIR + "/")) {
+            fs.delete(path);
+        }
+    }
+
+    /**
+     * Sets the maximum number of callbacks that will be delivered in a single script.
+     * When a batch reaches this size it is flushed on the next EDT cycle, even if
+     * a flush latency is set.
+     * @param maxBatchSize The maximum batch size.  Must be at least 1.
+     */
+    public synchronized void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be at least 1");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Gets the maximum number of callbacks that will be delivered in a single script.
+     * @return The maximum batch size.
+     */
+    public synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the number of milliseconds to wait before flushing pending callbacks.  Default is 0,
+     * which flushes on the next EDT cycle.  Larger values trade latency for fewer script evaluations.
+     * @param flushLatency The flush latency in milliseconds.
+     */
+    public synchronized void setFlushLatency(int flushLatency) {
+        this.flushLatency = flushLatency < 0 ? 0 : flushLatency;
+    }
+
+    /**
+     * Gets the number of milliseconds to wait before flushing pending callbacks.
+     * @return The flush latency in milliseconds.
+     */
+    public synchronized int getFlushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * Sets the maximum number of bytes of a <code>byte[]</code> result that are sent in a single script.
+     * Larger results are split across several scripts.  The size is rounded down to a multiple of 3 so
+     * that each chunk can be base64 encoded on its own.
+     * @param binaryChunkSize The chunk size in bytes.  Must be at least 3.
+     */
+    public synchronized void setBinaryChunkSize(int binaryChunkSize) {
+        if (binaryChunkSize < 3) {
+            throw new IllegalArgumentException("Binary chunk size must be at least 3");
+        }
+        this.binaryChunkSize = binaryChunkSize - binaryChunkSize % 3;
+    }
+
+    /**
+     * Gets the maximum number of bytes of a <code>byte[]</code> result that are sent in a single script.
+     * @return The chunk size in bytes.
+     */
+    public synchronized int getBinaryChunkSize() {
+        return binaryChunkSize;
+    }
+
+    /**
+     * Sets the encoding of binary data in results.  Set when the bridge is installed, to the codec
+     * that was negotiated with cordova.js.
+     * @param codec The codec.
+     */
+    synchronized void setCodec(BridgeCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Gets the encoding of binary data in results.
+     * @return The codec.
+     */
+    public synchronized BridgeCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets the maximum number of characters of result JSON that are sent in a single script.  Longer
+     * results are split across several scripts.  Default is 256K.
+     * @param textChunkSize The chunk size in characters.  Must be at least 1024.
+     */
+    public synchronized void setTextChunkSize(int textChunkSize) {
+        if (textChunkSize < 1024) {
+            throw new IllegalArgumentException("Text chunk size must be at least 1024");
+        }
+        this.textChunkSize = textChunkSize;
+    }
+
+    /**
+     * Gets the maximum number of characters of result JSON that are sent in a single script.
+     * @return The chunk size in characters.
+     */
+    public synchronized int getTextChunkSize() {
+        return textChunkSize;
+    }
+
+    /**
+     * Sets the size above which results are written to a temporary file for javascript to read,
+     * instead of being sent in chunks.  Default is 4M characters of JSON.  If the file can't be created, the
+     * result is sent in chunks.  If it fails part way through, or javascript can't read it, the callback fails
+     * with {@link CordovaApplication.Result#IO_EXCEPTION}, and if javascript can't read it, later results are
+     * sent in chunks.
+     * @param spillThreshold The threshold in characters.  0 to always send results in chunks.
+     */
+    public synchronized void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold < 0 ? 0 : spillThreshold;
+    }
+
+    /**
+     * Gets the size above which results are written to a temporary file.
+     * @return The threshold in characters, or 0 if results are never written to a file.
+     */
+    public synchronized int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * A large result waiting to be sent in chunks or written to a file.
+     */
+    private static class TextTransfer {
+        final int id;
+
+        /**
+         * The chunks of the JSON, for results that are sent in chunks.
+         */
+        final ArrayList<String> chunks = new ArrayList<String>();
+
+        /**
+         * Length of the JSON in characters.
+         */
+        int length;
+
+        /**
+         * The file that the JSON is written to, or null if it is sent in chunks.
+         */
+        SpillFile file;
+
+        TextTransfer(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Takes the JSON of a large result out of the batch in chunks while it is serialized, and
+     * moves the chunks to a file once the result goes over the spill threshold.
+     */
+    private class ResultSink extends JSONResultWriter.Overflow {
+
+        /**
+         * The result being taken out of the batch, or null if the result hasn't overflowed.
+         */
+        TextTransfer transfer;
+
+        /**
+         * Buffer that chunks are copied through.
+         */
+        private char[] chars = new char[0];
+
+        void overflow(StringBuilder sb) {
+            int end = sb.length();
+            int off = start;
+            while (end - off >= limit) {
+                int chunkEnd = off + limit;
+                if (Character.isHighSurrogate(sb.charAt(chunkEnd-1))) {
+                    // Keep surrogate pairs in one chunk, so that each chunk can be encoded on its own.
+                    chunkEnd--;
+                }
+                add(substring(sb, off, chunkEnd));
+                off = chunkEnd;
+            }
+            sb.delete(start, off);
+        }
+
+        private String substring(StringBuilder sb, int from, int to) {
+            if (chars.length < to - from) {
+                chars = new char[to - from];
+            }
+            sb.getChars(from, to, chars, 0);
+            return new String(chars, 0, to - from);
+        }
+
+        /**
+         * Moves the rest of the result out of the batch.
+         * @return The transfer for the result.
+         */
+        TextTransfer finish(StringBuilder sb) {
+            overflow(sb);
+            if (sb.length() > start) {
+                add(substring(sb, start, sb.length()));
+                sb.setLength(start);
+            }
+            TextTransfer out = transfer;
+            transfer = null;
+            chars = new char[0];
+            if (out.file != null) {
+                out.file.finish();
+            }
+            return out;
+        }
+
+        /**
+         * Drops the result, if it failed to serialize.
+         */
+        void abort() {
+            if (transfer != null && transfer.file != null) {
+                transfer.file.abort();
+            }
+            transfer = null;
+            chars = new char[0];
+        }
+
+        private void add(String chunk) {
+            if (transfer == null) {
+                transfer = new TextTransfer(++nextTransferId);
+            }
+            transfer.length += chunk.length();
+            if (transfer.file != null) {
+                transfer.file.write(chunk);
+                return;
+            }
+            transfer.chunks.add(chunk);
+            if (spillThreshold > 0 && transfer.length > spillThreshold) {
+                transfer.file = new SpillFile();
+                for (int i=0; i<transfer.chunks.size(); i++) {
+                    transfer.file.write(transfer.chunks.get(i));
+                }
+                transfer.chunks.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the JSON of a large result to a file on a background thread, as its chunks arrive.  Chunks are
+     * released once they are written.
+     */
+    private class SpillFile implements Runnable {
+
+        /**
+         * The path of the file.  Null until the writer has opened it.
+         */
+        String path;
+
+        /**
+         * Chunks waiting to be written.
+         */
+        private final LinkedList<String> pending = new LinkedList<String>();
+
+        /**
+         * Whether the writer is running, or has been started.
+         */
+        private boolean writing;
+
+        /**
+         * Whether all chunks have been added.
+         */
+        private boolean finished;
+
+        /**
+         * Whether the result failed to serialize, and the file should be deleted.
+         */
+        private boolean aborted;
+
+        /**
+         * Whether the file has been closed.
+         */
+        private boolean done;
+
+        /**
+         * Whether the file was written successfully.
+         */
+        private boolean written;
+
+        /**
+         * Whether the file couldn't be created.  The chunks are kept, so that the result can be sent in chunks.
+         */
+        private boolean fallback;
+
+        /**
+         * Why the file couldn't be written, if it failed part way through.
+         */
+        private String error;
+
+        private Writer out;
+
+        /**
+         * Queues a chunk to be written.  Must be called while holding the dispatcher's lock.
+         */
+        void write(String chunk) {
+            synchronized (this) {
+                pending.addLast(chunk);
+                if (writing || fallback) {
+                    return;
+                }
+                writing = true;
+            }
+            startWriter(this);
+        }
+
+        /**
+         * Marks the end of the result.  Must be called while holding the dispatcher's lock.
+         */
+        void finish() {
+            synchronized (this) {
+                finished = true;
+                if (fallback) {
+                    done = true;
+                    return;
+                }
+                if (writing) {
+                    return;
+                }
+                writing = true;
+            }
+            startWriter(this);
+        }
+
+        /**
+         * Drops the result.  Must be called while holding the dispatcher's lock.
+         */
+        void abort() {
+            synchronized (this) {
+                aborted = true;
+                pending.clear();
+            }
+            finish();
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        synchronized boolean isWritten() {
+            return written;
+        }
+
+        synchronized boolean isFallback() {
+            return fallback;
+        }
+
+        synchronized String getError() {
+            return error == null ? "Failed to write result file" : error;
+        }
+
+        /**
+         * Takes the chunks that were kept because the file couldn't be created.
+         */
+        synchronized LinkedList<String> takeChunks() {
+            LinkedList<String> out = new LinkedList<String>(pending);
+            pending.clear();
+            return out;
+        }
+
+        /**
+         * Writes the queued chunks.  Returns when the queue is empty, and closes the file once the
+         * result is finished.
+         */
+        public void run() {
+            if (!open()) {
+                return;
+            }
+            while (true) {
+                String chunk;
+                boolean skip;
+                synchronized (this) {
+                    if (pending.isEmpty() && !finished) {
+                        writing = false;
+                        return;
+                    }
+                    chunk = pending.isEmpty() ? null : pending.removeFirst();
+                    skip = aborted;
+                }
+                if (chunk == null) {
+                    close();
+                    return;
+                }
+                if (skip) {
+                    continue;
+                }
+                try {
+                    out.write(chunk);
+                } catch (IOException ex) {
+                    Log.e(ex);
+                    synchronized (this) {
+                        aborted = true;
+                        error = ex.getMessage();
+                        pending.clear();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Creates the file the first time the writer runs.  If it can't be created, the chunks are kept and
+         * the writer stops.
+         * @return False if the file couldn't be created.
+         */
+        private boolean open() {
+            synchronized (this) {
+                if (out != null || aborted) {
+                    return true;
+                }
+            }
+            try {
+                String p = newSpillPath();
+                out = new OutputStreamWriter(FileSystemStorage.getInstance().openOutputStream(p), "UTF-8");
+                path = p;
+                return true;
+            } catch (IOException ex) {
+                Log.e(ex);
+            }
+            boolean flush;
+            synchronized (this) {
+                fallback = true;
+                writing = false;
+                done = finished;
+                flush = finished;
+            }
+            if (flush) {
+                host.callSerially(flushTask);
+            }
+            return false;
+        }
+
+        /**
+         * Closes the file, deletes it if it wasn't written, and flushes the results that waited for it.
+         */
+        private void close() {
+            boolean ok;
+            synchronized (this) {
+                ok = !aborted;
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    Log.e(ex);
+                    ok = false;
+                }
+                out = null;
+            }
+            if (!ok && path != null) {
+                FileSystemStorage.getInstance().delete(path);
+            }
+            synchronized (this) {
+                done = true;
+                written = ok && path != null;
+            }
+            host.callSerially(flushTask);
+        }
+    }
+
+    /**
+     * A large binary result waiting to be sent in chunks.  The bytes are not copied, so
+     * plugins should not modify an array after sending it.
+     */
+    private static class BinaryTransfer {
+        final int id;
+        final byte[] data;
+        final int chunkSize;
+        final BridgeCodec codec;
+
+        BinaryTransfer(int id, byte[] data, int chunkSize, BridgeCodec codec) {
+            this.id = id;
+            this.data = data;
+            this.chunkSize = chunkSize;
+            this.codec = codec;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.io.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps track of the callbacks that are waiting for a result.
+ *
+ * <p>A watchdog sweeps the outstanding callbacks a few times a second.  Callbacks whose action has a
+ * {@link ActionOptions#setTimeout(int) timeout} are failed with a {@link CordovaApplication.Result#TIMEOUT} error
+ * once they have had no result for that long, which also frees the callback on the javascript side.  Callbacks
+ * that have had no result for longer than the straggler threshold are logged once, so that plugins that never
+ * call back can be found.  Streams, i.e. callbacks that have had a result with <code>keepCallback</code> set,
+ * aren't reported as stragglers.</p>
+ *
+ * <p>The watchdog only runs while there are outstanding callbacks that it has to check, and stops after being
+ * idle for a while.  Streams without a timeout don't keep it running.</p>
+ * @author shannah
+ */
+class CallbackTracker {
+
+    /**
+     * How often the watchdog checks the outstanding callbacks.
+     */
+    private static final int SWEEP_INTERVAL = 250;
+
+    /**
+     * Number of sweeps without any outstanding callbacks before the watchdog stops.
+     */
+    private static final int MAX_IDLE_SWEEPS = 120;
+
+    /**
+     * Outstanding callbacks, keyed by callback ID.
+     */
+    private final Map<String,CallbackContext> live = new HashMap<String,CallbackContext>();
+
+    /**
+     * Callbacks with no result for this many milliseconds are reported as stragglers.  0 disables reporting.
+     */
+    private int stragglerThreshold = 60000;
+
+    /**
+     * The watchdog timer.  Null while the watchdog isn't running.
+     */
+    private Timer timer;
+
+    /**
+     * Number of consecutive sweeps that found no outstanding callbacks to check.
+     */
+    private int idleSweeps;
+
+    /**
+     * Starts tracking a callback.
+     * @param callback The callback.
+     */
+    void add(CallbackContext callback) {
+        synchronized (live) {
+            live.put(callback.getCallbackId(), callback);
+            if (timer == null && (stragglerThreshold > 0 || callback.getTimeout() > 0)) {
+                idleSweeps = 0;
+                timer = new Timer();
+                timer.schedule(new TimerTask() {
+                    public void run() {
+                        sweep();
+                    }
+                }, SWEEP_INTERVAL, SWEEP_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a callback that has sent its final result.
+     * @param callback The callback.
+     */
+    void finished(CallbackContext callback) {
+        synchronized (live) {
+            if (live.get(callback.getCallbackId()) == callback) {
+                live.remove(callback.getCallbackId());
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a callback.
+     * @param callbackId The callback ID.
+     * @return The callback, or null if it wasn't being tracked.
+     */
+    CallbackContext remove(String callbackId) {
+        synchronized (live) {
+            return live.remove(callbackId);
+        }
+    }
+
+    /**
+     * Gets the callbacks that are waiting for a result.
+     * @return The outstanding callbacks.
+     */
+    CallbackContext[] getOutstanding() {
+        synchronized (live) {
+            return live.values().toArray(new CallbackContext[live.size()]);
+        }
+    }
+
+    /**
+     * Sets how long a callback can go without a result before it is reported as a straggler.
+     * @param stragglerThreshold The threshold in milliseconds.  0 disables reporting.
+     */
+    void setStragglerThreshold(int stragglerThreshold) {
+        synchronized (live) {
+            this.stragglerThreshold = stragglerThreshold < 0 ? 0 : stragglerThreshold;
+        }
+    }
+
+    /**
+     * Gets how long a callback can go without a result before it is reported as a straggler.
+     * @return The threshold in milliseconds.  0 if reporting is disabled.
+     */
+    int getStragglerThreshold() {
+        synchronized (live) {
+            return stragglerThreshold;
+        }
+    }
+
+    /**
+     * Checks the outstanding callbacks for timeouts and stragglers.  Runs on the watchdog thread.
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        ArrayList<CallbackContext> timedOut = null;
+        ArrayList<CallbackContext> stragglers = null;
+        synchronized (live) {
+            boolean checked = false;
+            for (Iterator<CallbackContext> it = live.values().iterator(); it.hasNext();) {
+                CallbackContext callback = it.next();
+                int timeout = callback.getTimeout();
+                boolean streaming = callback.isStreaming();
+                if (timeout <= 0 && (streaming || stragglerThreshold <= 0)) {
+                    // Nothing to check until the stream ends.
+                    continue;
+                }
+                checked = true;
+                long idle = now - callback.getLastActivity();
+                if (timeout > 0 && idle >= timeout) {
+                    it.remove();
+                    if (timedOut == null) {
+                        timedOut = new ArrayList<CallbackContext>();
+                    }
+                    timedOut.add(callback);
+                } else if (!streaming && stragglerThreshold > 0 && idle >= stragglerThreshold && callback.markStraggler()) {
+                    if (stragglers == null) {
+                        stragglers = new ArrayList<CallbackContext>();
+                    }
+                    stragglers.add(callback);
+                }
+            }
+            if (checked) {
+                idleSweeps = 0;
+            } else if (++idleSweeps >= MAX_IDLE_SWEEPS && timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+        }
+        if (timedOut != null) {
+            for (int i=0; i<timedOut.size(); i++) {
+                timedOut.get(i).timeout();
+            }
+        }
+        if (stragglers != null) {
+            for (int i=0; i<stragglers.size(); i++) {
+                CallbackContext callback = stragglers.get(i);
+                Log.p("Callback "+callback.getCallbackId()+" for "+callback.getService()+"."+callback.getAction()
+                        +" has had no result for "+(now - callback.getLastActivity())+"ms", Log.WARNING);
+            }
+        }
+    }
+}
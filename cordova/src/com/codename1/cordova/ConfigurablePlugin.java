@@ -0,0 +1,32 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * Optional interface for plugins that want to declare how their actions are run.  For example,
+ * a plugin that reads files can declare that its actions run on a background thread.
+ * @author shannah
+ * @see ActionOptions
+ */
+public interface ConfigurablePlugin extends CordovaPlugin {
+
+    /**
+     * Gets the options for an action.
+     * @param action The name of the action.
+     * @return The options for the action, or <code>null</code> to use the defaults.
+     */
+    public ActionOptions getActionOptions(String action);
+}
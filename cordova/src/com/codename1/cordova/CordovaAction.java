@@ -0,0 +1,72 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as the handler of a plugin action, so that the action can be dispatched to it
+ * without a hand-written chain of <code>action.equals()</code> checks.
+ *
+ * <p>The annotation processor in <code>CordovaAppBuilder.jar</code> generates a router for each class
+ * with annotated methods.  The router for <code>CameraPlugin</code> is <code>CameraPluginRouter</code>, in the same
+ * package.  It is a {@link CordovaArgsPlugin} that switches on the action name, binds the arguments to the
+ * method's parameters by position, and calls the method.  Codename One has no reflection on devices, so the
+ * dispatch is generated at build time rather than looked up at runtime.</p>
+ *
+ * <pre>
+ * public class CameraPlugin {
+ *     &#64;CordovaAction("takePicture")
+ *     public void takePicture(int quality, boolean allowEdit, CallbackContext callback) {
+ *         ...
+ *     }
+ *
+ *     &#64;CordovaAction
+ *     public boolean isAvailable() {
+ *         return Capture.hasCamera();
+ *     }
+ * }
+ *
+ * app.addPlugin("Camera", new CameraPluginRouter(new CameraPlugin()));
+ * </pre>
+ *
+ * <p>Parameters can be <code>boolean</code>, <code>int</code>, <code>long</code>, <code>float</code>, <code>double</code>,
+ * <code>String</code>, <code>byte[]</code> or <code>Object</code>, which are read from the argument at the same index
+ * and are required, or <code>Boolean</code>, <code>Integer</code>, <code>Long</code> or <code>Double</code>, which are null
+ * if the argument is missing or null.  A {@link CallbackContext} parameter receives the callback and doesn't use up an
+ * argument index, and a {@link CordovaArgs} parameter receives all of the arguments.  If an argument is missing or has
+ * the wrong type, the call fails with an error and the method isn't called.</p>
+ *
+ * <p>A method that takes a {@link CallbackContext} must return void, and sends its own results.  Otherwise the
+ * value that the method returns is sent as the result, or null if it returns void.  Any exception that the method
+ * throws, checked or not, is logged and sent as an error.</p>
+ *
+ * <p>If the class implements {@link ConfigurablePlugin}, the router passes its action options through.</p>
+ * @author shannah
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface CordovaAction {
+
+    /**
+     * The name of the action.  Defaults to the name of the method.
+     * @return The name of the action.
+     */
+    String value() default "";
+}
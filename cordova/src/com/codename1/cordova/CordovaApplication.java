@@ -15,28 +15,20 @@
  */
 package com.codename1.cordova;
 
-import ca.weblite.codename1.json.JSONArray;
-import ca.weblite.codename1.json.JSONObject;
-import com.codename1.io.JSONParser;
-import com.codename1.io.Log;
 import com.codename1.javascript.JSFunction;
 import com.codename1.javascript.JSObject;
 import com.codename1.javascript.JavascriptContext;
 import com.codename1.ui.BrowserComponent;
 import com.codename1.ui.Command;
+import com.codename1.ui.Display;
 import com.codename1.ui.Form;
 import com.codename1.ui.events.ActionEvent;
 import com.codename1.ui.events.ActionListener;
+import com.codename1.ui.events.BrowserNavigationCallback;
 
 import com.codename1.ui.layouts.BorderLayout;
-import com.codename1.util.Base64;
-import com.codename1.util.Callback;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -50,19 +42,34 @@ public class CordovaApplication extends Form {
     
     
     /**
-     * The browser component that houses the app.
+     * The browser component that houses the app.  Created on the first {@link #load(java.lang.String) }
+     * or {@link #getWebview() }, so that a web view claimed from the {@link WebViewPool} is the only
+     * one created.
      */
-    private final BrowserComponent webview;
+    private BrowserComponent webview;
     
     /**
-     * Javascript context for java - javascript communication.
+     * The codec to use for binary data if the page's cordova.js supports it.
+     */
+    private BridgeCodec preferredCodec = BridgeCodec.JSON;
+    
+    /**
+     * Javascript context for java - javascript communication.  Created when the
+     * first page is loaded and reused for every page after that.
      */
     private JavascriptContext context;
     
     /**
-     * Map to store all of the plugins that are registered for this application.
+     * The <code>window</code> object that the bridge functions are set on.  Each new page is
+     * bound to the same lookup table slot (see {@link #rebindWindow() }), so the functions registered with the context are
+     * replaced rather than added to.
      */
-    private Map<String,CordovaPlugin> pluginMap = new HashMap<String,CordovaPlugin>();
+    private JSObject bridgeWindow;
+    
+    /**
+     * The bridge functions, created once with the context.
+     */
+    private JSFunction echoFunction, execFunction, execBatchFunction;
     
     /**
      *  Map of plugins that will be added to all CordovaApplication objects by default.
@@ -70,10 +77,25 @@ public class CordovaApplication extends Form {
     private static Map<String,CordovaPlugin> globalPluginMap = new HashMap<String,CordovaPlugin>();
     
     /**
-     * Shared JSON parser.  Instead of creating a new one for each request, since that
-     * may be frequent.
+     * Map of plugin factories that will be added to all CordovaApplication objects by default.
+     */
+    private static Map<String,PluginRegistration> globalPluginFactories = new HashMap<String,PluginRegistration>();
+    
+    /**
+     * Property that JavascriptContext uses to store the lookup table ID of an object.
      */
-    private JSONParser jsonParser = new JSONParser();
+    private static final String JS_OBJECT_ID_KEY = "ca_weblite_codename1_js_JSObject_ID";
+    
+    /**
+     * Path that cordova.js navigates a hidden iframe to in order to ask for the bridge as soon as it
+     * is evaluated, rather than waiting for the page to finish loading.
+     */
+    static final String NATIVE_READY_PATH = "/!cn1nativeready";
+    
+    /**
+     * The native side of the exec bridge.  Dispatches exec calls to plugins and delivers their results.
+     */
+    private final CordovaBridge bridge;
     
     /**
      * Result codes for passing back from Native to Javascript.  These match
@@ -89,172 +111,41 @@ public class CordovaApplication extends Form {
         IO_EXCEPTION,
         INVALID_ACTION,
         JSON_EXCEPTION,
-        ERROR
+        ERROR,
+        
+        /**
+         * The call had no result within the timeout set in its {@link ActionOptions}.
+         */
+        TIMEOUT
     };
     
     
     /**
-     * Constructor.  Creates a new form with the a web view.
+     * Constructor.  Creates a new form.  The web view is added when the first page is loaded.
      */
     public CordovaApplication() {
-        pluginMap.putAll(globalPluginMap);
-        webview = new BrowserComponent();
-        webview.addWebEventListener("onError", new ActionListener() {
-            public void actionPerformed(ActionEvent evt) {
-            System.out.println("There was an error: "+evt.getSource());
-        
+        bridge = new CordovaBridge(new BridgeHost() {
+            public void executeScript(String script) {
+                if (webview != null) {
+                    webview.execute(script);
+                }
             }
-        });
-        
-        
-        webview.addWebEventListener("onLoad", new ActionListener() {
-            public void actionPerformed(ActionEvent evt){
-                context = new JavascriptContext(webview);
-                context.getWindow().set("echo", new JSFunction() {
-
-                    @Override
-                    public void apply(JSObject self, Object[] args) {
-                        System.out.println(""+args[0]);
-                    }
 
-                }, true);
-                
-                
-                context.getWindow().set("CN1Exec", new JSFunction() {
-
-                        @Override
-                        public void apply(JSObject self, Object[] arguments) {
-                            //System.out.println("Inside CN1Excec");
-                            //System.out.println(Arrays.toString(arguments));
-                            final String callbackId = (String)arguments[0];
-                            String service = (String)arguments[1];
-                            
-                            CordovaPlugin plugin = pluginMap.get(service);
-                            if (plugin == null) {
-                                webview.execute("cordova.callbackError("+JSONObject.quote(callbackId)+", {message:'Plugin not found', status:"+Result.INVALID_ACTION.ordinal()+", keepCallback:false})");
-                                return;
-                            }
-                            
-                            
-                            String action = (String)arguments[2];
-                            
-                            Callback callback = new Callback() {
-
-                                @Override
-                                public void onSucess(Object value) {
-
-
-                                    String valueJSON = null;
-                                    if (value == null) {
-                                        valueJSON = "null";
-                                    } else if (value instanceof String) {
-                                        valueJSON = JSONObject.quote((String)value);
-                                    } else if (value instanceof ArrayList) {
-                                        JSONArray jsonArr = new JSONArray((ArrayList)value);
-                                        valueJSON = jsonArr.toString();
-                                    } else if (value instanceof HashMap) {
-                                        JSONObject jsonObj = new JSONObject((HashMap)value);
-                                        valueJSON = jsonObj.toString();
-                                    } else if (value instanceof Double || value instanceof Integer || value instanceof Float || value instanceof Short) {
-                                        try {
-                                            valueJSON = JSONObject.numberToString(value);
-                                        } catch (Exception ex) {
-                                            valueJSON = "null";
-                                        }
-                                    } else if (value instanceof Boolean) {
-                                        valueJSON = ((Boolean)value).booleanValue() ? "true" : "false";
-                                    } else if (value instanceof Character) {
-                                        valueJSON = "\""+value+"\"";
-                                    } else {
-                                        throw new RuntimeException("Result value "+value+" is not a recognized type");
-                                    }
-                                    //System.out.println("About call cordova.callbackSuccess "+valueJSON);
-                                    webview.execute("cordova.callbackSuccess("+JSONObject.quote(callbackId)+
-                                            ", {message:"+valueJSON+", status: "+Result.OK.ordinal()+", keepCallback:false})");
-
-                                }
-
-                                @Override
-                                public void onError(Object sender, Throwable err, int errorCode, String errorMessage) {
-                                    webview.execute("cordova.callbackError("+JSONObject.quote(callbackId)+", {message:"+errorMessage+", status: "+Result.ERROR.ordinal()+", keepCallback:false})");
-                                }
-
-                            };
-
-                        
-
-
-                    
-                            
-                            
-                            String actionArgsJSON = (String)arguments[3];
-                            
-                            // First try the version of the plugin that accepts a JSON string as an argument.
-                            if (plugin.execute(action, actionArgsJSON, callback)) {
-                                return;
-                            }
-                            
-                            // If that version of execute doesn't find a match, then we will convert the JSON string into
-                            // a List and try the other version.
-                            List actionArgs = null;
-                            if (actionArgsJSON == null) {
-                                actionArgs = new ArrayList();
-                            } else {
-                                InputStreamReader r = null;
-                                try {
-                                    r = new InputStreamReader(new ByteArrayInputStream(actionArgsJSON.getBytes()));
-                                    actionArgs = (List)jsonParser.parseJSON(r).get("root");
-                                } catch (Exception ex) {
-                                    Log.e(ex);
-                                    throw new RuntimeException(ex.getMessage());
-                                } finally {
-                                    if (r != null) {
-                                        try {
-                                            r.close();
-                                        } catch (Exception ex){}
-                                    }
-                                }
-
-
-                            }
-
-
-                            for (int i=0; i<actionArgs.size(); i++) {
-                                Object arg = actionArgs.get(i);
-                                if (arg instanceof Map && "ArrayBuffer".equals(((Map)arg).get("CDVType"))) {
-                                    byte[] bytes = Base64.decode(((String)((Map)arg).get("data")).getBytes());
-                                    actionArgs.set(i, bytes);
-                                }
-                            }
-
-                            
-                            if (!plugin.execute(action, actionArgs, callback)) {
-                                webview.execute("cordova.callbackError("+JSONObject.quote(callbackId)+", {message:'Action not found', status:"+Result.ERROR.ordinal()+", keepCallback:false})");
-                            }
-                        }
-                }
-                    , true
-                );
-                onLoad();
-                //webview.execute("console.log('about to call native ready');");
-                webview.execute("window._nativeReady = true; cordova.require('cordova/channel').onNativeReady.fire()");
-                
+            public void callSerially(Runnable task) {
+                Display.getInstance().callSerially(task);
             }
-        });
+        }, globalPluginMap, globalPluginFactories);
         
         setLayout(new BorderLayout());
         getAllStyles().setPadding(0, 0, 0, 0);
         getAllStyles().setMargin(0, 0, 0, 0);
-        webview.getAllStyles().setPadding(0, 0, 0, 0);
-        webview.getAllStyles().setMargin(0, 0, 0, 0);
         getTitleArea().setPreferredH(0);
-        addComponent(BorderLayout.CENTER, webview);
         
         setBackCommand(new Command("") {
 
             @Override
             public void actionPerformed(ActionEvent evt) {
-                webview.execute("cordova.require('cordova/channel').onPause.fire()");
+                pause();
             }
             
         });
@@ -264,14 +155,208 @@ public class CordovaApplication extends Form {
     
     
     
+    /**
+     * Sets the web view and adds it to the form.
+     */
+    private void setWebview(BrowserComponent webview) {
+        this.webview = webview;
+        attachWebview();
+        addComponent(BorderLayout.CENTER, webview);
+    }
+    
+    /**
+     * Adds the listeners that connect the web view to the bridge.
+     */
+    private void attachWebview() {
+        webview.getAllStyles().setPadding(0, 0, 0, 0);
+        webview.getAllStyles().setMargin(0, 0, 0, 0);
+        webview.addWebEventListener("onError", new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+            System.out.println("There was an error: "+evt.getSource());
+        
+            }
+        });
+        
+        webview.setBrowserNavigationCallback(new BrowserNavigationCallback() {
+            public boolean shouldNavigate(String url) {
+                if (url != null && url.indexOf(NATIVE_READY_PATH) >= 0) {
+                    Display.getInstance().callSerially(new Runnable() {
+                        public void run() {
+                            installBridge();
+                        }
+                    });
+                    return false;
+                }
+                return true;
+            }
+        });
+        
+        webview.addWebEventListener("onLoad", new ActionListener() {
+            public void actionPerformed(ActionEvent evt){
+                // Normally cordova.js has already asked for the bridge by now.  This
+                // covers pages where the request didn't get through.
+                installBridge();
+                onLoad();
+            }
+        });
+    }
+    
+    /**
+     * Switches to a warm web view from the {@link WebViewPool}.  The page is already loading (or
+     * loaded), so the bridge is installed right away if cordova.js has asked for it.
+     */
+    private void useWarmWebview(WebViewPool.Entry warm) {
+        setWebview(warm.webview);
+        if (warm.isNativeReadyRequested() || warm.isLoaded()) {
+            installBridge();
+        }
+        if (warm.isLoaded()) {
+            onLoad();
+        }
+    }
+    
+    /**
+     * Installs the bridge functions into the current page and fires <code>onNativeReady</code>
+     * if they aren't there yet.  This is called when cordova.js asks for the bridge while the page is
+     * still loading, and again on <code>onLoad</code> in case it didn't.
+     */
+    private void installBridge() {
+        if ("true".equals(webview.executeAndReturnString("!!window.CN1Exec"))) {
+            return;
+        }
+        if (context == null) {
+            createContext();
+            echoFunction = new JSFunction() {
+
+                @Override
+                public void apply(JSObject self, Object[] args) {
+                    System.out.println(""+args[0]);
+                }
+
+            };
+            execFunction = new JSFunction() {
+
+                @Override
+                public void apply(JSObject self, Object[] arguments) {
+                    //System.out.println("Inside CN1Excec");
+                    //System.out.println(Arrays.toString(arguments));
+                    String priority = arguments.length > 4 ? (String)arguments[4] : null;
+                    bridge.exec((String)arguments[0], (String)arguments[1], (String)arguments[2], (String)arguments[3], priority, false);
+                }
+            };
+            execBatchFunction = new JSFunction() {
+
+                @Override
+                public void apply(JSObject self, Object[] arguments) {
+                    bridge.execBatch((String)arguments[0]);
+                }
+            };
+        } else if (!rebindWindow()) {
+            // The lookup table isn't laid out the way rebindWindow() expects.  Start over
+            // with a new context for this page.
+            context.setBrowserComponent(null);
+            createContext();
+        }
+        bridgeWindow.set("echo", echoFunction, true);
+        bridgeWindow.set("CN1Exec", execFunction, true);
+        bridgeWindow.set("CN1ExecBatch", execBatchFunction, true);
+        bridge.getCallbackDispatcher().setCodec(negotiateCodec());
+        //webview.execute("console.log('about to call native ready');");
+        webview.execute("window._nativeReady = true; if (window.cordova) { cordova.require('cordova/channel').onNativeReady.fire(); }");
+    }
+    
+    /**
+     * Creates the javascript context for the web view, and gets its <code>window</code> object.
+     */
+    private void createContext() {
+        context = new JavascriptContext(webview);
+        bridgeWindow = context.getWindow();
+    }
+    
+    /**
+     * Puts the new page's window in the slot of the lookup table that bridgeWindow points to, so that
+     * the bridge functions replace the ones registered for the previous page instead of adding new ones.
+     * 
+     * <p>This relies on how JavascriptContext stores objects: {@link JSObject#toJSPointer() } is
+     * <code>table[id]</code> and the ID is kept in the {@link #JS_OBJECT_ID_KEY} property.  It is all
+     * kept here so that a change to that only needs to be dealt with in one place.</p>
+     * @return False if the pointer isn't in the expected format or the window couldn't be bound, in
+     * which case a new context should be created for the page.
+     */
+    private boolean rebindWindow() {
+        String pointer = bridgeWindow.toJSPointer();
+        int bracket = pointer == null ? -1 : pointer.lastIndexOf('[');
+        if (bracket <= 0 || !pointer.endsWith("]")) {
+            return false;
+        }
+        String table = pointer.substring(0, bracket);
+        String id = pointer.substring(bracket+1, pointer.length()-1);
+        if (!isIdentifier(table) || id.length() == 0) {
+            return false;
+        }
+        for (int i=0; i<id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return false;
+            }
+        }
+        return "true".equals(webview.executeAndReturnString("(function(){ try { "
+                + "if (typeof("+table+") == 'undefined'){"+table+"=[]} "
+                + pointer+"=window; window."+JS_OBJECT_ID_KEY+"="+id+"; "
+                + "return "+pointer+"===window; } catch (e) { return false; } })()"));
+    }
+    
+    /**
+     * Checks whether a string is a (possibly dotted) javascript identifier.
+     */
+    private static boolean isIdentifier(String str) {
+        if (str.length() == 0 || str.charAt(0) == '.' || str.charAt(str.length()-1) == '.') {
+            return false;
+        }
+        for (int i=0; i<str.length(); i++) {
+            char ch = str.charAt(i);
+            if (!(ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' 
+                    || ch == '_' || ch == '$' || ch == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Picks the codec for the current page: the preferred codec if the page's cordova.js lists it in
+     * <code>exec.codecs</code>, and JSON otherwise.
+     */
+    private BridgeCodec negotiateCodec() {
+        if (preferredCodec == BridgeCodec.JSON) {
+            return BridgeCodec.JSON;
+        }
+        String supported = webview.executeAndReturnString(
+                "(function(){ try { return ','+cordova.require('cordova/exec').codecs.join(',')+','; } catch (e) { return ''; } })()");
+        if (supported != null && supported.indexOf(","+preferredCodec.getName()+",") >= 0) {
+            return preferredCodec;
+        }
+        return BridgeCodec.JSON;
+    }
+    
     /**
      * Loads the given URL.  Generally you'll just want to use load("index.html")
      * to load the index.html file from the src/html directory.
+     * 
+     * <p>If the {@link WebViewPool} has a warm web view for the URL and the web view hasn't been
+     * created yet, it is used instead of loading the page again, and {@link #getWebview() } returns that
+     * web view from then on.</p>
      * @param url The URL to load
      * @throws IOException If there is an error like the file doesn't exist or can't be reached.
      */
     public void load(String url) throws IOException {
-        webview.setURLHierarchy(url);
+        if (webview == null) {
+            WebViewPool.Entry warm = WebViewPool.claim(url);
+            if (warm != null) {
+                useWarmWebview(warm);
+                return;
+            }
+        }
+        getWebview().setURLHierarchy(url);
         
     }
     
@@ -286,13 +371,72 @@ public class CordovaApplication extends Form {
      * @param plugin The plugin to be registered.
      */
     public void addPlugin(String service, CordovaPlugin plugin) {
-        pluginMap.put(service, plugin);
+        bridge.addPlugin(service, plugin);
+    }
+    
+    /**
+     * Registers a plugin for this app by factory.  The plugin isn't created until the first 
+     * exec call for its service, so plugins with expensive constructors don't slow down startup.
+     * 
+     * @param service The name of the plugin.
+     * @param factory The factory that creates the plugin.
+     * @param shared True to share a single instance, created by this factory, across all applications
+     * that register the factory as shared.  False to create an instance for this application.
+     */
+    public void addPlugin(String service, PluginFactory factory, boolean shared) {
+        bridge.addPlugin(service, new PluginRegistration(factory, shared));
+    }
+    
+    /**
+     * Sets the options used to run actions of a plugin.  These take precedence over any
+     * options declared by the plugin itself via {@link ConfigurablePlugin}.
+     * 
+     * @param service The name of the plugin.
+     * @param action The name of the action, or <code>null</code> to set the options for all actions
+     * of the plugin that don't have options of their own.
+     * @param options The options, or <code>null</code> to remove them.
+     */
+    public void setActionOptions(String service, String action, ActionOptions options) {
+        bridge.setActionOptions(service, action, options);
+    }
+    
+    /**
+     * Sets the executor that runs the background actions of a plugin.  By default each plugin gets
+     * its own executor, created on demand with the size set by {@link #setDefaultPluginExecutorSize(int, int) }.
+     * @param service The name of the plugin.
+     * @param executor The executor.
+     */
+    public void setPluginExecutor(String service, PluginExecutor executor) {
+        bridge.setPluginExecutor(service, executor);
+    }
+    
+    /**
+     * Gets the executor that runs the background actions of a plugin, creating it if necessary.
+     * @param service The name of the plugin.
+     * @return The executor.
+     */
+    public PluginExecutor getPluginExecutor(String service) {
+        return bridge.getPluginExecutor(service);
+    }
+    
+    /**
+     * Sets the size of plugin executors that are created on demand.  This doesn't affect
+     * executors that already exist.  Default is 1 thread with a queue of 32 tasks.
+     * @param poolSize The maximum number of threads per plugin.
+     * @param maxQueueSize The maximum number of actions that can wait for a thread.  Actions
+     * beyond this are failed with a "Plugin is busy" error.
+     */
+    public void setDefaultPluginExecutorSize(int poolSize, int maxQueueSize) {
+        bridge.setDefaultPluginExecutorSize(poolSize, maxQueueSize);
     }
     
     /**
      * Fires the "pause" event to the cordova js layer.
      */
     public void pause() {
+        if (webview == null) {
+            return;
+        }
         webview.execute("cordova.require('cordova/channel').onPause.fire()");
     }
     
@@ -300,6 +444,9 @@ public class CordovaApplication extends Form {
      * Fires the "resume" event to the cordova js layer.
      */
     public void resume() {
+        if (webview == null) {
+            return;
+        }
         webview.execute("cordova.require('cordova/channel').onResume.fire()");
     }
     
@@ -310,29 +457,228 @@ public class CordovaApplication extends Form {
      * @param plugin The plugin.
      */
     public static void addGlobalPlugin(String service, CordovaPlugin plugin) {
+        globalPluginFactories.remove(service);
         globalPluginMap.put(service, plugin);
     }
     
+    /**
+     * Registers a global plugin factory to be included in all CordovaApplication objects.
+     * The plugin isn't created until the first exec call for its service.
+     * This won't affect existing objects.  Only ones instantiated after this call.
+     * @param service The name of the service that the plugin is registered to serve.
+     * @param factory The factory that creates the plugin.
+     * @param shared True to share a single instance across all applications.  False to create 
+     * an instance for each application.
+     */
+    public static void addGlobalPlugin(String service, PluginFactory factory, boolean shared) {
+        globalPluginMap.remove(service);
+        globalPluginFactories.put(service, new PluginRegistration(factory, shared));
+    }
+    
    
     /**
      * Event fired after the application is loaded.  Meant to be overridden by 
      * subclasses.
+     * 
+     * <p>The bridge is installed as soon as cordova.js runs, so <code>deviceready</code> may
+     * already have fired by the time this is called.  Plugins should be added before calling
+     * {@link #load(java.lang.String) }, not here.</p>
      */
     protected void onLoad() {
         
     }
     
     /**
-     * Returns reference to the WebView.
+     * Returns reference to the WebView.  The web view is created if no page has been loaded yet, in which
+     * case {@link #load(java.lang.String) } won't use a warm web view from the {@link WebViewPool}.
      * @return The browser component where the cordova app is displayed.
      */
     public BrowserComponent getWebview() {
+        if (webview == null) {
+            setWebview(new BrowserComponent());
+        }
         return webview;
     }
     
     /**
-     * Returns reference to the Javascript context for the Cordova application.
-     * @return The javascript context.
+     * Returns the dispatcher that delivers plugin results back to javascript.  Use
+     * this to tune the batch size and flush latency of callbacks.
+     * @return The callback dispatcher.
+     */
+    public CallbackDispatcher getCallbackDispatcher() {
+        return bridge.getCallbackDispatcher();
+    }
+    
+    /**
+     * Returns the metrics recorded for exec calls that go through the bridge.  Use 
+     * {@link BridgeStats#snapshot(boolean) } to read (and optionally reset) them.
+     * @return The bridge stats.
+     */
+    public BridgeStats getBridgeStats() {
+        return bridge.getBridgeStats();
+    }
+    
+    /**
+     * Drops cached results of actions that have a {@link ActionOptions#setCacheTTL(int) cache TTL}, on
+     * both the native and the javascript side.  Call this when something that cached results depend on
+     * changes, e.g. the locale.
+     * @param service The service, or null for all services.
+     * @param action The action, or null for all actions of the service.
+     */
+    public void invalidateCache(String service, String action) {
+        bridge.invalidateCache(service, action);
+    }
+    
+    /**
+     * Sets the maximum number of results of cacheable actions that are kept on the native side.
+     * The least recently used results are dropped first.  Default is 64.
+     * @param size The maximum number of results.  0 disables the native cache.
+     */
+    public void setResultCacheSize(int size) {
+        bridge.getResultCache().setMaxSize(size);
+    }
+    
+    /**
+     * Sets the encoding of binary results (<code>byte[]</code>) that are sent to javascript.
+     * The codec is negotiated with cordova.js each time the bridge is installed in a page, and
+     * JSON is used if the page doesn't support the preferred codec.  Default is {@link BridgeCodec#JSON}.
+     *
+     * <p>Binary arguments always arrive as base64, whatever the codec, so plugins that parse the JSON of
+     * their arguments themselves are unaffected.</p>
+     * @param codec The codec to use if the page supports it.
+     */
+    public void setBridgeCodec(BridgeCodec codec) {
+        preferredCodec = codec == null ? BridgeCodec.JSON : codec;
+    }
+    
+    /**
+     * Gets the encoding of binary data that was negotiated with the current page.
+     * @return The codec.
+     */
+    public BridgeCodec getBridgeCodec() {
+        return bridge.getCallbackDispatcher().getCodec();
+    }
+    
+    /**
+     * Returns the channel that native code can use to publish events to javascript.  Javascript
+     * listens with <code>cordova.events.on(topic, listener)</code>.
+     * @return The event channel.
+     */
+    public EventChannel getEventChannel() {
+        return bridge.getEventChannel();
+    }
+    
+    /**
+     * Returns the callbacks that are waiting for a result.  These are exec calls that haven't
+     * received their final result yet, including streaming calls that are still open.
+     * @return The outstanding callbacks.
+     */
+    public CallbackContext[] getOutstandingCallbacks() {
+        return bridge.getCallbackTracker().getOutstanding();
+    }
+    
+    /**
+     * Sets how long a callback can go without a result before it is logged as a straggler.  Stragglers
+     * are usually plugins that forgot to call back, which leaves the callback in <code>cordova.callbacks</code>
+     * forever.  Default is 60000.
+     * @param threshold The threshold in milliseconds.  0 disables reporting.
+     * @see ActionOptions#setTimeout(int)
+     */
+    public void setStragglerThreshold(int threshold) {
+        bridge.getCallbackTracker().setStragglerThreshold(threshold);
+    }
+    
+    /**
+     * Gets how long a callback can go without a result before it is logged as a straggler.
+     * @return The threshold in milliseconds.  0 if reporting is disabled.
+     */
+    public int getStragglerThreshold() {
+        return bridge.getCallbackTracker().getStragglerThreshold();
+    }
+    
+    /**
+     * Gets the number of exec calls of a priority class that are queued, waiting for higher
+     * priority calls to finish.
+     * @param priority The priority class.
+     * @return The number of queued calls.
+     * @see ActionOptions#setPriority(com.codename1.cordova.ActionOptions.Priority)
+     */
+    public int getExecQueueDepth(ActionOptions.Priority priority) {
+        return bridge.getExecScheduler().getQueueDepth(priority);
+    }
+    
+    /**
+     * Gets the largest number of exec calls of a priority class that have been queued at once.
+     * @param priority The priority class.
+     * @return The largest number of queued calls.
+     */
+    public int getMaxExecQueueDepth(ActionOptions.Priority priority) {
+        return bridge.getExecScheduler().getMaxQueueDepth(priority);
+    }
+    
+    /**
+     * Sets how long a queued exec call waits before it is moved up one priority class, so that
+     * low priority calls aren't starved by a steady stream of higher priority ones.  Default is 250.
+     * @param interval The interval in milliseconds.  0 disables aging.
+     */
+    public void setPriorityAgingInterval(int interval) {
+        bridge.getExecScheduler().setAgingInterval(interval);
+    }
+    
+    /**
+     * Gets how long a queued exec call waits before it is moved up one priority class.
+     * @return The interval in milliseconds.  0 if aging is disabled.
+     */
+    public int getPriorityAgingInterval() {
+        return bridge.getExecScheduler().getAgingInterval();
+    }
+    
+    /**
+     * Starts recording the exec traffic of the bridge: the service, action, arguments and time of each call,
+     * and the results that plugins send back.  The log can be replayed against stub plugins, e.g. with the
+     * replay benchmark in <code>cordova-benchmarks</code>, to reproduce a performance problem from the field or to
+     * compare builds on a real workload.
+     *
+     * <p>Recording serializes every result a second time, so only turn it on while collecting a session.
+     * The log contains everything that passes through the bridge, so treat it as user data.</p>
+     * @param path The path of the log, in {@link com.codename1.io.FileSystemStorage}.  An existing file is replaced.
+     * @throws IOException If the log can't be opened.
+     */
+    public void startRecording(String path) throws IOException {
+        BridgeRecorder recorder = new BridgeRecorder(path);
+        BridgeRecorder old = bridge.getRecorder();
+        bridge.setRecorder(recorder);
+        if (old != null) {
+            old.close();
+        }
+    }
+    
+    /**
+     * Stops recording the exec traffic, and writes the rest of the log.
+     * @return The path of the log, or null if the traffic wasn't being recorded.
+     */
+    public String stopRecording() {
+        BridgeRecorder recorder = bridge.getRecorder();
+        if (recorder == null) {
+            return null;
+        }
+        bridge.setRecorder(null);
+        recorder.close();
+        return recorder.getPath();
+    }
+    
+    /**
+     * Checks whether the exec traffic is being recorded.
+     * @return True if it is being recorded.
+     */
+    public boolean isRecording() {
+        return bridge.getRecorder() != null;
+    }
+    
+    /**
+     * Returns reference to the Javascript context for the Cordova application.  The same
+     * context is used for every page that is loaded.
+     * @return The javascript context, or null if no page has been loaded yet.
      */
     public JavascriptContext getContext() {
         return context;
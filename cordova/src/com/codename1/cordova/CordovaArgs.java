@@ -0,0 +1,429 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import ca.weblite.codename1.json.JSONException;
+
+/**
+ * Typed access to the arguments of an exec call.
+ *
+ * <p>Arguments are read lazily from the raw JSON array.  The array is only scanned as far as the
+ * highest index that has been requested, and only the values that are actually read are decoded.
+ * Primitive getters like {@link #getInt(int) } parse straight from the JSON, without boxing.  This makes it
+ * cheap to read a couple of scalars out of a large argument array.</p>
+ *
+ * <p>This mirrors the <code>CordovaArgs</code> class of the Cordova Android plugin API.  ArrayBuffer
+ * arguments can be read with {@link #getBytes(int) }.</p>
+ *
+ * <p>Instances are not thread-safe.  They are meant to be used by the plugin action they were passed to.</p>
+ * @author shannah
+ * @see CordovaArgsPlugin
+ */
+public class CordovaArgs {
+
+    /**
+     * The raw JSON array.
+     */
+    private final String json;
+
+    /**
+     * Scanner used to index the array.  Created on first access.
+     */
+    private JSONScanner indexer;
+
+    /**
+     * Scanner used to read values.
+     */
+    private JSONScanner reader;
+
+    /**
+     * Start positions of the elements that have been indexed so far.
+     */
+    private int[] starts = new int[8];
+
+    /**
+     * Number of elements that have been indexed so far.
+     */
+    private int count;
+
+    /**
+     * Whether the whole array has been indexed.
+     */
+    private boolean complete;
+
+    /**
+     * Creates arguments from a JSON array string.
+     * @param json The JSON array.  May be null, which is treated as an empty array.
+     */
+    public CordovaArgs(String json) {
+        this.json = json == null ? "[]" : json;
+    }
+
+    /**
+     * Gets the raw JSON array.
+     * @return The JSON.
+     */
+    public String getJSON() {
+        return json;
+    }
+
+    /**
+     * Gets the number of arguments.  Note that this scans the whole array.
+     * @return The number of arguments.
+     * @throws JSONException If the JSON is malformed.
+     */
+    public int length() throws JSONException {
+        while (!complete) {
+            indexNext();
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether an argument is missing or null.
+     * @param index The argument index.
+     * @return True if there is no argument at the index, or it is null.
+     * @throws JSONException If the JSON is malformed.
+     */
+    public boolean isNull(int index) throws JSONException {
+        int pos = find(index);
+        return pos < 0 || json.startsWith("null", pos);
+    }
+
+    /**
+     * Gets an argument as an int.  Decimals are truncated, and strings are parsed.
+     * @param index The argument index.
+     * @return The value.
+     * @throws JSONException If the argument is missing or isn't a number.
+     */
+    public int getInt(int index) throws JSONException {
+        return (int)getLong(index);
+    }
+
+    /**
+     * Gets an argument as a long.  Decimals are truncated, and strings are parsed.
+     * @param index The argument index.
+     * @return The value.
+     * @throws JSONException If the argument is missing or isn't a number.
+     */
+    public long getLong(int index) throws JSONException {
+        int pos = require(index);
+        int len = json.length();
+        int p = pos;
+        boolean negative = false;
+        if (p < len && json.charAt(p) == '-') {
+            negative = true;
+            p++;
+        }
+        int digitsStart = p;
+        long value = 0;
+        while (p < len) {
+            char ch = json.charAt(p);
+            if (ch < '0' || ch > '9') {
+                break;
+            }
+            value = value * 10 + (ch - '0');
+            p++;
+        }
+        int digits = p - digitsStart;
+        if (digits == 0 || digits > 18 || p < len && (json.charAt(p) == '.' || json.charAt(p) == 'e' || json.charAt(p) == 'E')) {
+            // Not a plain integer.  Let getDouble() deal with it.
+            return (long)getDouble(index);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Gets an argument as a double.  Strings are parsed.
+     * @param index The argument index.
+     * @return The value.
+     * @throws JSONException If the argument is missing or isn't a number.
+     */
+    public double getDouble(int index) throws JSONException {
+        int pos = require(index);
+        String str = json.charAt(pos) == '"' ? readString(pos) : token(pos);
+        try {
+            return Double.parseDouble(str);
+        } catch (NumberFormatException ex) {
+            throw new JSONException("Argument "+index+" is not a number.");
+        }
+    }
+
+    /**
+     * Gets an argument as a boolean.  The strings "true" and "false" are also accepted.
+     * @param index The argument index.
+     * @return The value.
+     * @throws JSONException If the argument is missing or isn't a boolean.
+     */
+    public boolean getBoolean(int index) throws JSONException {
+        int pos = require(index);
+        if (json.startsWith("true", pos)) {
+            return true;
+        }
+        if (json.startsWith("false", pos)) {
+            return false;
+        }
+        if (json.charAt(pos) == '"') {
+            String str = readString(pos);
+            if ("true".equalsIgnoreCase(str)) {
+                return true;
+            }
+            if ("false".equalsIgnoreCase(str)) {
+                return false;
+            }
+        }
+        throw new JSONException("Argument "+index+" is not a boolean.");
+    }
+
+    /**
+     * Gets an argument as a string.  Arguments that aren't strings are returned as their JSON.
+     * @param index The argument index.
+     * @return The value.
+     * @throws JSONException If the argument is missing.
+     */
+    public String getString(int index) throws JSONException {
+        int pos = require(index);
+        return json.charAt(pos) == '"' ? readString(pos) : token(pos);
+    }
+
+    /**
+     * Gets an ArrayBuffer argument as bytes.  Base64 strings are also accepted.
+     * @param index The argument index.
+     * @return The bytes.
+     * @throws JSONException If the argument is missing or isn't an ArrayBuffer.
+     */
+    public byte[] getBytes(int index) throws JSONException {
+        Object value = get(index);
+        if (value instanceof byte[]) {
+            return (byte[])value;
+        }
+        if (value instanceof String) {
+            return ArgsDecoder.decodeBase64((String)value);
+        }
+        throw new JSONException("Argument "+index+" is not an ArrayBuffer.");
+    }
+
+    /**
+     * Gets an argument as an object.  Objects are returned as Maps, arrays as Lists, and numbers, strings
+     * and booleans as their boxed types.  ArrayBuffers are returned as <code>byte[]</code>.
+     * @param index The argument index.
+     * @return The value.  May be null if the argument is null.
+     * @throws JSONException If the argument is missing.
+     */
+    public Object get(int index) throws JSONException {
+        int pos = require(index);
+        try {
+            return ArgsDecoder.readValue(readerAt(pos));
+        } catch (IllegalArgumentException ex) {
+            throw new JSONException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Gets an argument as an int, or a default value if it is missing, null or not a number.
+     * @param index The argument index.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public int optInt(int index, int defaultValue) {
+        try {
+            return isNull(index) ? defaultValue : getInt(index);
+        } catch (JSONException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets an argument as a long, or a default value if it is missing, null or not a number.
+     * @param index The argument index.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public long optLong(int index, long defaultValue) {
+        try {
+            return isNull(index) ? defaultValue : getLong(index);
+        } catch (JSONException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets an argument as a double, or a default value if it is missing, null or not a number.
+     * @param index The argument index.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public double optDouble(int index, double defaultValue) {
+        try {
+            return isNull(index) ? defaultValue : getDouble(index);
+        } catch (JSONException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets an argument as a boolean, or a default value if it is missing, null or not a boolean.
+     * @param index The argument index.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public boolean optBoolean(int index, boolean defaultValue) {
+        try {
+            return isNull(index) ? defaultValue : getBoolean(index);
+        } catch (JSONException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets an argument as a string, or a default value if it is missing or null.
+     * @param index The argument index.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public String optString(int index, String defaultValue) {
+        try {
+            return isNull(index) ? defaultValue : getString(index);
+        } catch (JSONException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets an ArrayBuffer argument as bytes, or a default value if it is missing, null or not an ArrayBuffer.
+     * @param index The argument index.
+     * @param defaultValue The default value.
+     * @return The bytes.
+     */
+    public byte[] optBytes(int index, byte[] defaultValue) {
+        try {
+            return isNull(index) ? defaultValue : getBytes(index);
+        } catch (JSONException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets an argument as an object, or a default value if it is missing or null.
+     * @param index The argument index.
+     * @param defaultValue The default value.
+     * @return The value.
+     * @see #get(int)
+     */
+    public Object opt(int index, Object defaultValue) {
+        try {
+            return isNull(index) ? defaultValue : get(index);
+        } catch (JSONException ex) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+
+    /**
+     * Finds the start position of an argument, indexing as far as necessary.
+     * @return The position, or -1 if there is no argument at the index.
+     */
+    private int find(int index) throws JSONException {
+        if (index < 0) {
+            return -1;
+        }
+        while (index >= count && !complete) {
+            indexNext();
+        }
+        return index < count ? starts[index] : -1;
+    }
+
+    /**
+     * Finds the start position of an argument that must exist.
+     */
+    private int require(int index) throws JSONException {
+        int pos = find(index);
+        if (pos < 0) {
+            throw new JSONException("Argument "+index+" not found.");
+        }
+        return pos;
+    }
+
+    /**
+     * Indexes the next element of the array.
+     */
+    private void indexNext() throws JSONException {
+        try {
+            if (indexer == null) {
+                indexer = new JSONScanner(json);
+                indexer.expect('[');
+                if (indexer.consume(']')) {
+                    complete = true;
+                    return;
+                }
+            } else if (!indexer.consume(',')) {
+                indexer.expect(']');
+                complete = true;
+                return;
+            }
+            indexer.peek();
+            if (count == starts.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(starts, 0, grown, 0, count);
+                starts = grown;
+            }
+            starts[count++] = indexer.getPosition();
+            indexer.skipValue();
+        } catch (IllegalArgumentException ex) {
+            complete = true;
+            throw new JSONException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Gets the reader positioned at the given position.
+     */
+    private JSONScanner readerAt(int pos) {
+        if (reader == null) {
+            reader = new JSONScanner(json);
+        }
+        reader.setPosition(pos);
+        return reader;
+    }
+
+    /**
+     * Reads the string at the given position.
+     */
+    private String readString(int pos) throws JSONException {
+        try {
+            return readerAt(pos).readString();
+        } catch (IllegalArgumentException ex) {
+            throw new JSONException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Gets the raw JSON of the value at the given position.
+     */
+    private String token(int pos) throws JSONException {
+        try {
+            JSONScanner r = readerAt(pos);
+            r.skipValue();
+            return json.substring(pos, r.getPosition());
+        } catch (IllegalArgumentException ex) {
+            throw new JSONException(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * Optional interface for plugins that want their arguments as {@link CordovaArgs}.  This adds a third
+ * variant of <code>execute()</code>, which is tried after {@link #execute(java.lang.String, java.lang.String, com.codename1.util.Callback) }
+ * and before {@link #execute(java.lang.String, java.util.List, com.codename1.util.Callback) }.
+ *
+ * <p>Since {@link CordovaArgs} only decodes the arguments that are actually read, this is the cheapest
+ * variant for actions that only need a few values out of their arguments.</p>
+ * @author shannah
+ */
+public interface CordovaArgsPlugin extends CordovaPlugin {
+
+    /**
+     * Handles the "exec" callback from cordova, with typed, lazily decoded arguments.
+     * @param action The name of the action to perform.
+     * @param args The arguments passed to the action from cordova.
+     * @param callback The callback for the result.
+     * @return <code>true</code> if the request was handled.  <code>false</code> otherwise.
+     */
+    public boolean execute(String action, CordovaArgs args, CallbackContext callback);
+}
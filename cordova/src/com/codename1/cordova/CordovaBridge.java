@@ -0,0 +1,668 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.ActionOptions.Priority;
+import com.codename1.cordova.CordovaApplication.Result;
+import com.codename1.io.Log;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The native side of the cordova exec bridge.  Receives exec calls from javascript, dispatches
+ * them to plugins, and sends the results back through a {@link CallbackDispatcher}.
+ *
+ * <p>The bridge only talks to the web view through its {@link BridgeHost}, so it can be driven
+ * without a display.  {@link CordovaApplication} owns one bridge and exposes its configuration.</p>
+ * @author shannah
+ */
+class CordovaBridge {
+
+    /**
+     * The host whose web view the bridge talks to.
+     */
+    private final BridgeHost host;
+
+    /**
+     * Dispatcher used to deliver plugin results back to javascript.
+     */
+    private final CallbackDispatcher dispatcher;
+
+    /**
+     * Channel for events published from native code to javascript.
+     */
+    private final EventChannel eventChannel;
+
+    /**
+     * Metrics about the exec calls that go through the bridge.
+     */
+    private final BridgeStats bridgeStats = new BridgeStats();
+
+    /**
+     * Plugins registered with the bridge, keyed by service.
+     */
+    private final Map<String,CordovaPlugin> pluginMap = new HashMap<String,CordovaPlugin>();
+
+    /**
+     * Plugins registered by factory that haven't been created yet, keyed by service.  Guarded by
+     * the <code>pluginMap</code> lock.
+     */
+    private final Map<String,PluginRegistration> factories = new HashMap<String,PluginRegistration>();
+
+    /**
+     * Action options set by the application, keyed by service and then by action.  Options
+     * that apply to all actions of a service are stored under the <code>null</code> action.
+     */
+    private final Map<String,Map<String,ActionOptions>> actionOptions = new HashMap<String,Map<String,ActionOptions>>();
+
+    /**
+     * Executors used to run background actions, keyed by service.
+     */
+    private final Map<String,PluginExecutor> executors = new HashMap<String,PluginExecutor>();
+
+    /**
+     * Pool size for executors that are created on demand.
+     */
+    private int executorPoolSize = 1;
+
+    /**
+     * Maximum queue size for executors that are created on demand.
+     */
+    private int executorQueueSize = 32;
+
+    /**
+     * Results of cacheable actions.
+     */
+    private final ResultCache resultCache = new ResultCache();
+
+    /**
+     * Callbacks that have not yet received their final result.
+     */
+    private final CallbackTracker tracker = new CallbackTracker();
+
+    /**
+     * Runs exec calls in order of priority.
+     */
+    private final ExecScheduler scheduler;
+
+    /**
+     * Calls of coalesced actions that are waiting for their first result, keyed by service, action and
+     * arguments.
+     */
+    private final Map<String,CallbackContext> inFlight = new HashMap<String,CallbackContext>();
+
+    /**
+     * Recorder for the exec traffic, or null if it isn't being recorded.
+     */
+    private volatile BridgeRecorder recorder;
+
+    /**
+     * Creates a bridge.
+     * @param host The host whose web view the bridge talks to.
+     * @param plugins Plugins to register.  The built-in plugins are registered after these.
+     */
+    CordovaBridge(BridgeHost host, Map<String,CordovaPlugin> plugins) {
+        this(host, plugins, new HashMap<String,PluginRegistration>());
+    }
+
+    /**
+     * Creates a bridge.
+     * @param host The host whose web view the bridge talks to.
+     * @param plugins Plugins to register.
+     * @param factories Plugins to register by factory.  These take precedence over <code>plugins</code> that are
+     * registered for the same service.  The built-in plugins are registered after these.
+     */
+    CordovaBridge(BridgeHost host, Map<String,CordovaPlugin> plugins, Map<String,PluginRegistration> factories) {
+        this.host = host;
+        dispatcher = new CallbackDispatcher(host);
+        eventChannel = new EventChannel(host);
+        scheduler = new ExecScheduler(host);
+        pluginMap.putAll(plugins);
+        for (Iterator<String> it = factories.keySet().iterator(); it.hasNext();) {
+            pluginMap.remove(it.next());
+        }
+        this.factories.putAll(factories);
+        pluginMap.put(BridgePlugin.SERVICE, new BridgePlugin(this));
+        pluginMap.put(BridgeStatsPlugin.SERVICE, new BridgeStatsPlugin(this));
+        pluginMap.put(EventsPlugin.SERVICE, new EventsPlugin(this));
+        pluginMap.put(BlobsPlugin.SERVICE, new BlobsPlugin());
+    }
+
+    /**
+     * Handles a single exec call from cordova.  Looks up the plugin for the service and
+     * invokes the action, sending the result back to javascript via the callback dispatcher.
+     * @param callbackId The callback ID that the result should be sent to.
+     * @param service The service (plugin name).
+     * @param action The action to perform.
+     * @param actionArgsJSON The action arguments, as a JSON array string.
+     */
+    void exec(String callbackId, String service, String action, String actionArgsJSON) {
+        exec(callbackId, service, action, actionArgsJSON, null, false);
+    }
+
+    /**
+     * Handles a single exec call from cordova.
+     * @param callbackId The callback ID that the result should be sent to.
+     * @param service The service (plugin name).
+     * @param action The action to perform.
+     * @param actionArgsJSON The action arguments, as a JSON array string.
+     * @param priorityHint The priority passed from javascript, or null to use the priority of the action.
+     * @param deferred True to always queue the call, so that the calls of a batch are run in order of priority.
+     */
+    void exec(final String callbackId, final String service, final String action, final String actionArgsJSON, String priorityHint, boolean deferred) {
+        long startTime = System.currentTimeMillis();
+        BridgeRecorder rec = recorder;
+        if (rec != null && !deferred) {
+            // Calls of a batch are recorded with the batch.
+            rec.recordExec(callbackId, service, action, actionArgsJSON, priorityHint);
+        }
+        BridgeStats.ActionStats stats = bridgeStats.recordCall(service, action, actionArgsJSON == null ? 0 : actionArgsJSON.length());
+        final CordovaPlugin plugin;
+        try {
+            plugin = getPlugin(service);
+        } catch (RuntimeException ex) {
+            Log.e(ex);
+            fail(callbackId, Result.INSTANTIATION_EXCEPTION, "Plugin could not be created", stats, startTime);
+            return;
+        }
+        if (plugin == null) {
+            fail(callbackId, Result.INVALID_ACTION, "Plugin not found", stats, startTime);
+            return;
+        }
+
+        ActionOptions options = getActionOptions(service, plugin, action);
+        String cacheKey = null;
+        if (options != null && options.getCacheTTL() > 0 && !"INVALID".equals(callbackId)) {
+            cacheKey = ResultCache.key(service, action, actionArgsJSON);
+            ResultCache.Entry cached = resultCache.get(cacheKey);
+            if (cached != null) {
+                int ttl = (int)(cached.expires - System.currentTimeMillis());
+                int size = dispatcher.dispatch(callbackId, Result.OK.ordinal(), new RawJSON(cached.json, false), false, ttl > 0 ? ttl : 0);
+                if (stats != null) {
+                    stats.recordCacheHit();
+                    stats.recordResult(size, false, System.currentTimeMillis() - startTime);
+                }
+                return;
+            }
+        }
+
+        String coalesceKey = null;
+        if (options != null && options.isCoalesce() && !"INVALID".equals(callbackId)) {
+            coalesceKey = cacheKey != null ? cacheKey : ResultCache.key(service, action, actionArgsJSON);
+            CallbackContext leader;
+            synchronized (inFlight) {
+                leader = inFlight.get(coalesceKey);
+            }
+            if (leader != null && leader.join(callbackId)) {
+                if (stats != null) {
+                    stats.recordCoalesced();
+                }
+                return;
+            }
+        }
+
+        final CallbackContext callback = new CallbackContext(this, callbackId, service, action);
+        if (stats != null) {
+            callback.setStats(stats);
+        }
+        if (options != null) {
+            callback.setTimeout(options.getTimeout());
+        }
+        if (cacheKey != null) {
+            callback.setCache(cacheKey, options.getCacheTTL());
+        }
+        if (coalesceKey != null) {
+            callback.setCoalesceKey(coalesceKey);
+            synchronized (inFlight) {
+                inFlight.put(coalesceKey, callback);
+            }
+        }
+        if (callbackId != null && !"INVALID".equals(callbackId)) {
+            // Fire-and-forget calls have no callback ID and never get a result, so they aren't tracked.
+            tracker.add(callback);
+        }
+
+        final boolean background = options != null && options.isBackground();
+        Runnable call = new Runnable() {
+            public void run() {
+                if (callback.isFinished()) {
+                    // Timed out or cancelled while it was queued.
+                    return;
+                }
+                if (background) {
+                    boolean queued = getPluginExecutor(service).execute(new Runnable() {
+                        public void run() {
+                            try {
+                                invoke(plugin, action, actionArgsJSON, callback);
+                            } catch (RuntimeException ex) {
+                                Log.e(ex);
+                                callback.error(ex.getMessage());
+                            }
+                        }
+                    });
+                    if (!queued) {
+                        callback.error("Plugin is busy");
+                    }
+                    return;
+                }
+                invoke(plugin, action, actionArgsJSON, callback);
+            }
+        };
+        Priority priority = parsePriority(priorityHint);
+        if (priority == null) {
+            priority = options == null ? Priority.NORMAL : options.getPriority();
+        }
+        if (deferred) {
+            scheduler.enqueue(priority, call);
+        } else {
+            scheduler.run(priority, call);
+        }
+    }
+
+    /**
+     * Parses a priority passed from javascript.
+     * @return The priority, or null if the hint is missing or unknown.
+     */
+    private static Priority parsePriority(String hint) {
+        if (hint == null) {
+            return null;
+        }
+        if ("high".equalsIgnoreCase(hint)) {
+            return Priority.HIGH;
+        }
+        if ("normal".equalsIgnoreCase(hint)) {
+            return Priority.NORMAL;
+        }
+        if ("low".equalsIgnoreCase(hint)) {
+            return Priority.LOW;
+        }
+        return null;
+    }
+
+    /**
+     * Sends an error for an exec call that couldn't be dispatched to a plugin.
+     */
+    private void fail(String callbackId, Result status, String message, BridgeStats.ActionStats stats, long startTime) {
+        int size = dispatcher.dispatch(callbackId, status.ordinal(), message, false);
+        if (stats != null) {
+            stats.recordResult(size, true, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Gets the plugin for a service.  Plugins registered by factory are created on first use.
+     * @param service The service.
+     * @return The plugin, or null if there is no plugin registered for the service.
+     * @throws RuntimeException If the plugin's factory fails.  The factory stays registered, so
+     * creating the plugin will be tried again on the next call.
+     */
+    private CordovaPlugin getPlugin(String service) {
+        PluginRegistration registration;
+        synchronized (pluginMap) {
+            CordovaPlugin plugin = pluginMap.get(service);
+            if (plugin != null) {
+                return plugin;
+            }
+            registration = factories.get(service);
+            if (registration == null) {
+                return null;
+            }
+        }
+        // Don't hold the lock while the plugin is constructed, since that may be slow.
+        CordovaPlugin plugin = registration.getPlugin(service);
+        synchronized (pluginMap) {
+            CordovaPlugin current = pluginMap.get(service);
+            if (current != null) {
+                // Another thread got there first, or a plugin was registered in the meantime.
+                return current;
+            }
+            if (factories.get(service) == registration) {
+                factories.remove(service);
+                pluginMap.put(service, plugin);
+            }
+            return plugin;
+        }
+    }
+
+    /**
+     * Invokes a plugin action.  Tries each variant of <code>execute()</code> in turn, and sends an
+     * error to javascript if none of them handle the action.
+     * @param plugin The plugin.
+     * @param action The action to perform.
+     * @param actionArgsJSON The action arguments, as a JSON array string.
+     * @param callback The callback for the result.
+     */
+    private void invoke(CordovaPlugin plugin, String action, String actionArgsJSON, CallbackContext callback) {
+        // First try the version of the plugin that accepts a JSON string as an argument.
+        if (plugin.execute(action, actionArgsJSON, callback)) {
+            return;
+        }
+
+        // Next, the lazily decoded CordovaArgs variant.
+        if (plugin instanceof CordovaArgsPlugin && ((CordovaArgsPlugin)plugin).execute(action, new CordovaArgs(actionArgsJSON), callback)) {
+            return;
+        }
+
+        // If that version of execute doesn't find a match, then we will convert the JSON string into
+        // a List (decoding ArrayBuffers to byte[]) and try the other version.
+        List actionArgs = ArgsDecoder.decode(actionArgsJSON);
+        if (!plugin.execute(action, actionArgs, callback)) {
+            callback.error("Action not found");
+        }
+    }
+
+    /**
+     * Handles a batch of exec calls that were queued on the javascript side.  The batch
+     * is a JSON array of commands of the form <code>[callbackId, service, action, args]</code>, with
+     * an optional priority as a fifth element.  The commands are run highest priority first, and
+     * those that don't fit in this EDT cycle are run in later ones.
+     * @param batchJSON The batch of commands.
+     */
+    void execBatch(String batchJSON) {
+        BridgeRecorder rec = recorder;
+        if (rec != null) {
+            rec.recordBatch(batchJSON);
+        }
+        JSONScanner scanner = new JSONScanner(batchJSON);
+        String json = scanner.getJSON();
+        scanner.expect('[');
+        if (scanner.consume(']')) {
+            return;
+        }
+        do {
+            scanner.expect('[');
+            String callbackId = scanner.readString();
+            scanner.expect(',');
+            String service = scanner.readString();
+            scanner.expect(',');
+            String action = scanner.readString();
+            scanner.expect(',');
+            scanner.peek();
+            int argsStart = scanner.getPosition();
+            scanner.skipValue();
+            String actionArgsJSON = json.substring(argsStart, scanner.getPosition());
+            String priority = null;
+            if (scanner.consume(',')) {
+                priority = scanner.readString();
+            }
+            scanner.expect(']');
+            try {
+                exec(callbackId, service, action, actionArgsJSON, priority, true);
+            } catch (RuntimeException ex) {
+                // Don't let one failing command prevent the rest of the batch from running.
+                Log.e(ex);
+            }
+        } while (scanner.consume(','));
+        scanner.expect(']');
+        scheduler.drain();
+    }
+
+    /**
+     * Registers a plugin.
+     * @param service The name of the plugin.
+     * @param plugin The plugin.
+     */
+    void addPlugin(String service, CordovaPlugin plugin) {
+        synchronized (pluginMap) {
+            factories.remove(service);
+            pluginMap.put(service, plugin);
+        }
+    }
+
+    /**
+     * Registers a plugin by factory.  The plugin is created on the first exec call for its service.
+     * @param service The name of the plugin.
+     * @param registration The registration.
+     */
+    void addPlugin(String service, PluginRegistration registration) {
+        synchronized (pluginMap) {
+            pluginMap.remove(service);
+            factories.put(service, registration);
+        }
+    }
+
+    /**
+     * Sets the options used to run actions of a plugin.
+     * @see CordovaApplication#setActionOptions(java.lang.String, java.lang.String, com.codename1.cordova.ActionOptions)
+     */
+    void setActionOptions(String service, String action, ActionOptions options) {
+        synchronized (actionOptions) {
+            Map<String,ActionOptions> serviceOptions = actionOptions.get(service);
+            if (serviceOptions == null) {
+                if (options == null) {
+                    return;
+                }
+                serviceOptions = new HashMap<String,ActionOptions>();
+                actionOptions.put(service, serviceOptions);
+            }
+            if (options == null) {
+                serviceOptions.remove(action);
+            } else {
+                serviceOptions.put(action, options);
+            }
+        }
+    }
+
+    /**
+     * Gets the options for an action.  Options set with {@link #setActionOptions(java.lang.String, java.lang.String, com.codename1.cordova.ActionOptions) }
+     * are checked first, then those declared by the plugin.
+     * @param service The name of the plugin.
+     * @param plugin The plugin.
+     * @param action The name of the action.
+     * @return The options, or <code>null</code> if the defaults apply.
+     */
+    private ActionOptions getActionOptions(String service, CordovaPlugin plugin, String action) {
+        synchronized (actionOptions) {
+            Map<String,ActionOptions> serviceOptions = actionOptions.get(service);
+            if (serviceOptions != null) {
+                ActionOptions options = serviceOptions.get(action);
+                if (options == null) {
+                    options = serviceOptions.get(null);
+                }
+                if (options != null) {
+                    return options;
+                }
+            }
+        }
+        if (plugin instanceof ConfigurablePlugin) {
+            return ((ConfigurablePlugin)plugin).getActionOptions(action);
+        }
+        return null;
+    }
+
+    /**
+     * Sets the executor that runs the background actions of a plugin.
+     * @see CordovaApplication#setPluginExecutor(java.lang.String, com.codename1.cordova.PluginExecutor)
+     */
+    void setPluginExecutor(String service, PluginExecutor executor) {
+        synchronized (executors) {
+            executors.put(service, executor);
+        }
+    }
+
+    /**
+     * Gets the executor that runs the background actions of a plugin, creating it if necessary.
+     * @param service The name of the plugin.
+     * @return The executor.
+     */
+    PluginExecutor getPluginExecutor(String service) {
+        synchronized (executors) {
+            PluginExecutor executor = executors.get(service);
+            if (executor == null) {
+                executor = new PluginExecutor(service, executorPoolSize, executorQueueSize);
+                executors.put(service, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Sets the size of plugin executors that are created on demand.
+     * @see CordovaApplication#setDefaultPluginExecutorSize(int, int)
+     */
+    void setDefaultPluginExecutorSize(int poolSize, int maxQueueSize) {
+        synchronized (executors) {
+            executorPoolSize = poolSize;
+            executorQueueSize = maxQueueSize;
+        }
+    }
+
+    /**
+     * Called by a {@link CallbackContext} when it has sent its final result.
+     * @param callback The callback context.
+     */
+    void callbackFinished(CallbackContext callback) {
+        tracker.finished(callback);
+        if (callback.getCoalesceKey() != null) {
+            coalescingEnded(callback);
+        }
+    }
+
+    /**
+     * Stops identical calls from joining a call of a coalesced action.
+     * @param callback The call.
+     */
+    void coalescingEnded(CallbackContext callback) {
+        synchronized (inFlight) {
+            if (inFlight.get(callback.getCoalesceKey()) == callback) {
+                inFlight.remove(callback.getCoalesceKey());
+            }
+        }
+    }
+
+    /**
+     * Cancels a callback at the request of javascript.  The plugin that owns the callback
+     * is notified via its cancel listeners, and any further results are discarded.  If identical calls
+     * of a coalesced action are still waiting on the same invocation, only this callback stops receiving results.
+     * @param callbackId The ID of the callback to cancel.
+     */
+    void cancelCallback(String callbackId) {
+        CallbackContext callback = tracker.remove(callbackId);
+        if (callback == null) {
+            // It may have joined another call.
+            CallbackContext[] outstanding = tracker.getOutstanding();
+            for (int i=0; i<outstanding.length; i++) {
+                if (outstanding[i].hasJoined(callbackId)) {
+                    callback = outstanding[i];
+                    break;
+                }
+            }
+            if (callback == null) {
+                return;
+            }
+            if (callback.leave(callbackId)) {
+                return;
+            }
+            tracker.remove(callback.getCallbackId());
+        } else if (callback.leave(callbackId)) {
+            tracker.add(callback);
+            return;
+        }
+        callback.cancel();
+    }
+
+    /**
+     * Sets the recorder for the exec traffic.
+     * @param recorder The recorder, or null to stop recording.
+     */
+    void setRecorder(BridgeRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Gets the recorder for the exec traffic.
+     * @return The recorder, or null if the traffic isn't being recorded.
+     */
+    BridgeRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Gets the dispatcher that delivers plugin results back to javascript.
+     * @return The callback dispatcher.
+     */
+    CallbackDispatcher getCallbackDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Gets the cache of results of cacheable actions.
+     * @return The result cache.
+     */
+    ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Drops cached results, on both sides of the bridge.
+     * @see CordovaApplication#invalidateCache(java.lang.String, java.lang.String)
+     */
+    void invalidateCache(String service, String action) {
+        resultCache.invalidate(service, action);
+        final StringBuilder script = new StringBuilder("cordova.require('cordova/exec').invalidateCache(");
+        if (service == null) {
+            script.append("null");
+        } else {
+            JSONResultWriter.quote(script, service);
+        }
+        script.append(',');
+        if (action == null) {
+            script.append("null");
+        } else {
+            JSONResultWriter.quote(script, action);
+        }
+        script.append(",true)");
+        host.callSerially(new Runnable() {
+            public void run() {
+                host.executeScript(script.toString());
+            }
+        });
+    }
+
+    /**
+     * Gets the channel for events published from native code to javascript.
+     * @return The event channel.
+     */
+    EventChannel getEventChannel() {
+        return eventChannel;
+    }
+
+    /**
+     * Gets the tracker for callbacks that are waiting for a result.
+     * @return The callback tracker.
+     */
+    CallbackTracker getCallbackTracker() {
+        return tracker;
+    }
+
+    /**
+     * Gets the scheduler that runs exec calls in order of priority.
+     * @return The scheduler.
+     */
+    ExecScheduler getExecScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets the metrics recorded for exec calls.
+     * @return The bridge stats.
+     */
+    BridgeStats getBridgeStats() {
+        return bridgeStats;
+    }
+}
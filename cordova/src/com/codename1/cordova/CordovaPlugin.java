@@ -24,6 +24,11 @@ import java.util.List;
  * provided.  Codename One will try {@link #execute(java.lang.String, java.lang.String, com.codename1.util.Callback) }
  * first, and {@link #execute(java.lang.String, java.util.List, com.codename1.util.Callback) } the action was unhandled.
  * Typically you would only implement one of these methods, and just return <code>false</code> from the other.</p>
+ * <p>Plugins that only read a few values out of their arguments can implement {@link CordovaArgsPlugin} instead,
+ * which receives the arguments as {@link CordovaArgs} that are decoded lazily.</p>
+ * <p>The callback passed to <code>execute()</code> is a {@link CallbackContext}.  Plugins that need to send more
+ * than one result for a single exec (e.g. progress updates or sensor readings) can cast it and use
+ * {@link CallbackContext#sendPluginResult(com.codename1.cordova.PluginResult) } with <code>keepCallback</code> set.</p>
  * <p>This API is meant to closely mirror the <a href="https://cordova.apache.org/docs/en/latest/guide/platforms/android/plugin.html">Cordova Android Plugin API</a>.</p>
  * <p>For full instructions on devloping native Cordova Plugins in Codename One, see <a href="https://github.com/codenameone/CN1Cordova/wiki/Plugin-Development">the Plugin Development wiki page</a>.</p>
  * @author shannah
@@ -37,7 +42,7 @@ public interface CordovaPlugin {
      * been pre-parsed into primitive (rather boxed) types: Doubles and Strings mostly.
      * @param action The name of the action to perform.
      * @param args List of arguments passed to the action from cordova.  Possible types include:
-     * <ul><li>String</li><li>Double</li><li>byte[]</li><li>Boolean</li></ul>
+     * <ul><li>String (booleans arrive as <code>"true"</code> or <code>"false"</code>)</li><li>Double</li><li>byte[]</li><li>Map</li><li>List</li></ul>
      * @param callback The callback to fire when execution is complete.  If the request is successful,
      * the method should call the callback.onSuccess() method.  If the request fails, it should call
      * the callback.onError() method.
@@ -0,0 +1,280 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.CordovaApplication.Result;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delivers events from native code to javascript by topic.
+ *
+ * <p>Native code calls {@link #publish(java.lang.String, java.lang.Object) }, and javascript listens
+ * with <code>cordova.events.on(topic, listener)</code>.  All topics share one long-lived callback, and
+ * javascript fans each event out to the listeners of its topic.  Events published while no page is
+ * listening to the topic are dropped.</p>
+ *
+ * <p>Events are sent once per EDT cycle, together with any pending plugin results.  A {@link Policy}
+ * set for a topic limits how many of its events are sent per cycle, so that something like a 200Hz sensor
+ * doesn't flood the web view:</p>
+ *
+ * <pre>
+ * EventChannel events = app.getEventChannel();
+ * events.setPolicy("accelerometer", EventChannel.Policy.latest());
+ * ...
+ * events.publish("accelerometer", reading);
+ * </pre>
+ *
+ * <p>Publishing is thread-safe.</p>
+ * @author shannah
+ * @see CordovaApplication#getEventChannel()
+ */
+public class EventChannel {
+
+    /**
+     * The host used to schedule flushes.
+     */
+    private final BridgeHost host;
+
+    /**
+     * The javascript callback that events are sent to.  Null until the page starts listening.
+     */
+    private CallbackContext sink;
+
+    /**
+     * Topics that javascript has listeners for.
+     */
+    private final Set<String> subscribed = new HashSet<String>();
+
+    /**
+     * Policies keyed by topic.
+     */
+    private final Map<String,Policy> policies = new HashMap<String,Policy>();
+
+    /**
+     * Events waiting to be sent.  Each one is a list of the topic and the data.
+     */
+    private ArrayList<Object> pending = new ArrayList<Object>();
+
+    /**
+     * Number of pending events per topic, for topics that have a limit.
+     */
+    private final Map<String,int[]> pendingCounts = new HashMap<String,int[]>();
+
+    /**
+     * Whether a flush has been scheduled.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Number of events that were replaced by a later event before being sent.
+     */
+    private long coalescedCount;
+
+    /**
+     * Runnable that sends the pending events.
+     */
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    EventChannel(BridgeHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Publishes an event.
+     * @param topic The topic.
+     * @param data The event data.  Supports the same types as {@link CallbackContext#success(java.lang.Object) }.
+     * @return True if the event was queued.  False if javascript isn't listening to the topic, in which case
+     * the event is dropped.
+     */
+    public boolean publish(String topic, Object data) {
+        synchronized (this) {
+            if (sink == null || !subscribed.contains(topic)) {
+                return false;
+            }
+            Policy policy = policies.get(topic);
+            if (policy != null) {
+                int[] count = pendingCounts.get(topic);
+                if (count == null) {
+                    count = new int[1];
+                    pendingCounts.put(topic, count);
+                }
+                if (count[0] >= policy.maxPerFlush) {
+                    // Over the limit.  The newest data replaces the last pending event for the topic.
+                    for (int i=pending.size()-1; i>=0; i--) {
+                        ArrayList<Object> event = (ArrayList<Object>)pending.get(i);
+                        if (topic.equals(event.get(0))) {
+                            event.set(1, data);
+                            break;
+                        }
+                    }
+                    coalescedCount++;
+                    return true;
+                }
+                count[0]++;
+            }
+            ArrayList<Object> event = new ArrayList<Object>(2);
+            event.add(topic);
+            event.add(data);
+            pending.add(event);
+            if (flushScheduled) {
+                return true;
+            }
+            flushScheduled = true;
+        }
+        host.callSerially(flushTask);
+        return true;
+    }
+
+    /**
+     * Checks whether javascript is listening to a topic.  Publishers can use this to avoid doing work,
+     * such as reading a sensor, that nobody is listening to.
+     * @param topic The topic.
+     * @return True if javascript has listeners for the topic.
+     */
+    public synchronized boolean hasSubscribers(String topic) {
+        return sink != null && subscribed.contains(topic);
+    }
+
+    /**
+     * Sets the policy that limits how many events of a topic are sent per EDT cycle.
+     * @param topic The topic.
+     * @param policy The policy, or null to send every event.
+     */
+    public synchronized void setPolicy(String topic, Policy policy) {
+        if (policy == null) {
+            policies.remove(topic);
+        } else {
+            policies.put(topic, policy);
+        }
+    }
+
+    /**
+     * Gets the policy for a topic.
+     * @param topic The topic.
+     * @return The policy, or null if every event is sent.
+     */
+    public synchronized Policy getPolicy(String topic) {
+        return policies.get(topic);
+    }
+
+    /**
+     * Gets the number of events that were replaced by a later event of the same topic before being sent.
+     * @return The number of coalesced events.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Sets the callback that events are sent to.  Called when a page starts listening, which also
+     * clears the subscriptions of the previous page.
+     * @param callback The callback.
+     */
+    synchronized void listen(CallbackContext callback) {
+        sink = callback;
+        subscribed.clear();
+        pending.clear();
+        pendingCounts.clear();
+    }
+
+    /**
+     * Records that javascript has listeners for a topic.
+     * @param topic The topic.
+     */
+    synchronized void subscribe(String topic) {
+        subscribed.add(topic);
+    }
+
+    /**
+     * Records that javascript no longer has listeners for a topic.
+     * @param topic The topic.
+     */
+    synchronized void unsubscribe(String topic) {
+        subscribed.remove(topic);
+    }
+
+    /**
+     * Sends the pending events to javascript as one result.
+     */
+    private void flush() {
+        ArrayList<Object> events;
+        CallbackContext callback;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty() || sink == null) {
+                return;
+            }
+            events = pending;
+            pending = new ArrayList<Object>();
+            pendingCounts.clear();
+            callback = sink;
+        }
+        callback.sendPluginResult(new PluginResult(Result.OK, events).setKeepCallback(true));
+    }
+
+    /**
+     * Limits how many events of a topic are sent per EDT cycle.  When the limit is reached, later events
+     * replace the last pending one, so javascript always gets the newest data.
+     */
+    public static final class Policy {
+
+        /**
+         * The maximum number of events sent per flush.
+         */
+        final int maxPerFlush;
+
+        private Policy(int maxPerFlush) {
+            this.maxPerFlush = maxPerFlush;
+        }
+
+        /**
+         * A policy that only sends the latest event of each EDT cycle.  Use this for state, such as a sensor
+         * reading or connection status, where only the current value matters.
+         * @return The policy.
+         */
+        public static Policy latest() {
+            return new Policy(1);
+        }
+
+        /**
+         * A policy that sends at most <code>max</code> events per EDT cycle.
+         * @param max The maximum number of events.  Must be at least 1.
+         * @return The policy.
+         */
+        public static Policy maxPerFrame(int max) {
+            if (max < 1) {
+                throw new IllegalArgumentException("max must be at least 1");
+            }
+            return new Policy(max);
+        }
+
+        /**
+         * Gets the maximum number of events sent per EDT cycle.
+         * @return The maximum.
+         */
+        public int getMaxPerFrame() {
+            return maxPerFlush;
+        }
+    }
+}
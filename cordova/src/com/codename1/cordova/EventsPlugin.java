@@ -0,0 +1,76 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.CordovaApplication.Result;
+import com.codename1.util.Callback;
+import java.util.List;
+
+/**
+ * Built-in plugin that connects <code>cordova.events</code> to the {@link EventChannel}.
+ *
+ * <p>Actions:</p>
+ * <ul>
+ * <li><code>listen</code> - Opens the callback that all events are sent to.  The callback is kept open
+ * until the page goes away, so it isn't tracked as an outstanding callback.</li>
+ * <li><code>subscribe</code> - Takes a topic that javascript now has listeners for.</li>
+ * <li><code>unsubscribe</code> - Takes a topic that javascript no longer has listeners for.</li>
+ * </ul>
+ * @author shannah
+ */
+class EventsPlugin implements CordovaPlugin {
+
+    /**
+     * The service name that cordova.js uses to talk to this plugin.
+     */
+    static final String SERVICE = "CN1Events";
+
+    /**
+     * The bridge that this plugin serves.
+     */
+    private final CordovaBridge bridge;
+
+    /**
+     * Creates the plugin.
+     * @param bridge The bridge.
+     */
+    EventsPlugin(CordovaBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    public boolean execute(String action, String jsonArgs, Callback callback) {
+        if ("listen".equals(action)) {
+            CallbackContext context = (CallbackContext)callback;
+            bridge.getCallbackTracker().remove(context.getCallbackId());
+            bridge.getEventChannel().listen(context);
+            context.sendPluginResult(new PluginResult(Result.NO_RESULT).setKeepCallback(true));
+            return true;
+        }
+        if ("subscribe".equals(action)) {
+            bridge.getEventChannel().subscribe(new CordovaArgs(jsonArgs).optString(0, null));
+            return true;
+        }
+        if ("unsubscribe".equals(action)) {
+            bridge.getEventChannel().unsubscribe(new CordovaArgs(jsonArgs).optString(0, null));
+            return true;
+        }
+        return false;
+    }
+
+    public boolean execute(String action, List args, Callback callback) {
+        return false;
+    }
+}
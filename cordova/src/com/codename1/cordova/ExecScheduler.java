@@ -0,0 +1,238 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.ActionOptions.Priority;
+import com.codename1.io.Log;
+import java.util.LinkedList;
+
+/**
+ * Runs exec calls on the EDT in order of their {@link Priority}.
+ *
+ * <p>Calls are queued per priority class and drained for a limited time per EDT cycle, so that a large
+ * batch of low priority calls doesn't hold up a high priority call that arrives while it is being drained.
+ * A queued call is treated as one class higher for every {@link #setAgingInterval(int) aging interval} it
+ * has waited, so low priority calls are never starved.</p>
+ * @author shannah
+ */
+class ExecScheduler {
+
+    /**
+     * The host used to schedule drains.
+     */
+    private final BridgeHost host;
+
+    /**
+     * Queued calls, one queue per priority class, indexed by ordinal.
+     */
+    private final LinkedList<Task>[] queues;
+
+    /**
+     * Largest depth each queue has reached.
+     */
+    private final int[] maxDepths;
+
+    /**
+     * Milliseconds a call waits before it is treated as one class higher.
+     */
+    private int agingInterval = 250;
+
+    /**
+     * Milliseconds of calls run per EDT cycle.
+     */
+    private int timeSlice = 8;
+
+    /**
+     * Whether a drain has been scheduled.
+     */
+    private boolean drainScheduled;
+
+    /**
+     * Runnable that drains the queues.
+     */
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            synchronized (ExecScheduler.this) {
+                drainScheduled = false;
+            }
+            drain();
+        }
+    };
+
+    ExecScheduler(BridgeHost host) {
+        this.host = host;
+        Priority[] priorities = Priority.values();
+        queues = new LinkedList[priorities.length];
+        for (int i=0; i<queues.length; i++) {
+            queues[i] = new LinkedList<Task>();
+        }
+        maxDepths = new int[priorities.length];
+    }
+
+    /**
+     * Runs a call right away if nothing of the same or a higher priority is queued, and queues it otherwise.
+     * Must be called on the EDT.
+     * @param priority The priority of the call.
+     * @param call The call.
+     */
+    void run(Priority priority, Runnable call) {
+        boolean queued;
+        synchronized (this) {
+            queued = hasQueued(priority.ordinal());
+        }
+        if (queued) {
+            enqueue(priority, call);
+            return;
+        }
+        call.run();
+    }
+
+    /**
+     * Queues a call.  It will run in a later EDT cycle, or in the next {@link #drain() }.
+     * @param priority The priority of the call.
+     * @param call The call.
+     */
+    void enqueue(Priority priority, Runnable call) {
+        int p = priority.ordinal();
+        synchronized (this) {
+            queues[p].addLast(new Task(call, System.currentTimeMillis()));
+            if (queues[p].size() > maxDepths[p]) {
+                maxDepths[p] = queues[p].size();
+            }
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        host.callSerially(drainTask);
+    }
+
+    /**
+     * Runs queued calls, highest effective priority first, until the queues are empty or the time slice
+     * is used up.  Anything left runs in a later EDT cycle.  Must be called on the EDT.
+     */
+    void drain() {
+        long start = System.currentTimeMillis();
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = next(System.currentTimeMillis());
+                if (task == null) {
+                    return;
+                }
+            }
+            try {
+                task.call.run();
+            } catch (RuntimeException ex) {
+                Log.e(ex);
+            }
+            if (System.currentTimeMillis() - start >= timeSlice) {
+                synchronized (this) {
+                    if (drainScheduled || !hasQueued(queues.length - 1)) {
+                        return;
+                    }
+                    drainScheduled = true;
+                }
+                host.callSerially(drainTask);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the next call to run.  A call's effective class is its class less one for every aging interval
+     * it has waited.  Ties go to the higher class.
+     */
+    private Task next(long now) {
+        int best = -1;
+        long bestRank = 0;
+        for (int i=0; i<queues.length; i++) {
+            if (queues[i].isEmpty()) {
+                continue;
+            }
+            long waited = now - queues[i].getFirst().queued;
+            long rank = i - (agingInterval > 0 ? waited / agingInterval : 0);
+            if (best < 0 || rank < bestRank) {
+                best = i;
+                bestRank = rank;
+            }
+        }
+        return best < 0 ? null : queues[best].removeFirst();
+    }
+
+    /**
+     * Checks whether anything of the given class or a higher one is queued.
+     */
+    private boolean hasQueued(int upTo) {
+        for (int i=0; i<=upTo; i++) {
+            if (!queues[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of queued calls of a priority class.
+     */
+    synchronized int getQueueDepth(Priority priority) {
+        return queues[priority.ordinal()].size();
+    }
+
+    /**
+     * Gets the largest number of calls of a priority class that have been queued at once.
+     */
+    synchronized int getMaxQueueDepth(Priority priority) {
+        return maxDepths[priority.ordinal()];
+    }
+
+    /**
+     * Clears the largest queue depths.
+     */
+    synchronized void resetMaxQueueDepths() {
+        for (int i=0; i<maxDepths.length; i++) {
+            maxDepths[i] = queues[i].size();
+        }
+    }
+
+    /**
+     * Sets how long a queued call waits before it is treated as one class higher.
+     * @param agingInterval The interval in milliseconds.  0 disables aging.
+     */
+    synchronized void setAgingInterval(int agingInterval) {
+        this.agingInterval = agingInterval < 0 ? 0 : agingInterval;
+    }
+
+    /**
+     * Gets how long a queued call waits before it is treated as one class higher.
+     */
+    synchronized int getAgingInterval() {
+        return agingInterval;
+    }
+
+    /**
+     * A queued call.
+     */
+    private static class Task {
+        final Runnable call;
+        final long queued;
+
+        Task(Runnable call, long queued) {
+            this.call = call;
+            this.queued = queued;
+        }
+    }
+}
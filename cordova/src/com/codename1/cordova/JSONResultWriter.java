@@ -0,0 +1,310 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Serializes plugin results as JSON directly into a <code>StringBuilder</code>.
+ *
+ * <p>Maps, Lists (and other Collections), arrays, Strings, byte arrays and boxed primitives are walked directly, so
+ * no intermediate JSON objects or strings are created.  The output is also valid javascript, so it can be
+ * embedded in a script as is.</p>
+ *
+ * <p>An {@link Overflow} can be passed to take the output off the buffer as it grows, so that a large result
+ * never has to be held in the buffer as a whole.</p>
+ * @author shannah
+ */
+final class JSONResultWriter {
+
+    /**
+     * Hex digits used for unicode escapes.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Base64 alphabet.
+     */
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private JSONResultWriter() {
+
+    }
+
+    /**
+     * Writes a value as JSON.
+     * @param sb The buffer to write to.
+     * @param value The value.  Supported types are null, String, {@link RawJSON}, byte[], Map, Collection, Object[], the boxed
+     * number types, Boolean and Character.  byte[] values are written with {@link BridgeCodec#writeBytes(java.lang.StringBuilder, byte[], int, int) }.
+     * @param codec The codec that byte[] values are written with.
+     * @throws RuntimeException If the value (or something nested in it) is not a supported type.  Anything
+     * already written to the buffer is left in place, so callers should roll back the buffer.
+     */
+    static void write(StringBuilder sb, Object value, BridgeCodec codec) {
+        write(sb, value, codec, null);
+    }
+
+    /**
+     * Writes a value as JSON, and passes the output to an overflow whenever the buffer holds more than
+     * its limit of it.
+     * @param sb The buffer to write to.
+     * @param value The value.
+     * @param codec The codec that byte[] values are written with.
+     * @param overflow The overflow, or null to keep all of the output in the buffer.
+     * @throws RuntimeException If the value (or something nested in it) is not a supported type.
+     * @see #write(java.lang.StringBuilder, java.lang.Object, com.codename1.cordova.BridgeCodec)
+     */
+    static void write(StringBuilder sb, Object value, BridgeCodec codec, Overflow overflow) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            quote(sb, (String)value, overflow);
+        } else if (value instanceof RawJSON) {
+            String json = ((RawJSON)value).getJSON();
+            if (overflow == null) {
+                sb.append(json);
+            } else {
+                int len = json.length();
+                char[] piece = new char[Math.min(len, overflow.limit)];
+                for (int off=0; off<len; off+=piece.length) {
+                    int n = Math.min(piece.length, len - off);
+                    json.getChars(off, off + n, piece, 0);
+                    sb.append(piece, 0, n);
+                    overflow.check(sb);
+                }
+            }
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[])value;
+            codec.writeBytes(sb, bytes, 0, bytes.length, overflow);
+        } else if (value instanceof Map) {
+            writeMap(sb, (Map)value, codec, overflow);
+        } else if (value instanceof List && value instanceof RandomAccess) {
+            List list = (List)value;
+            int len = list.size();
+            sb.append('[');
+            for (int i=0; i<len; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                write(sb, list.get(i), codec, overflow);
+                if (overflow != null) {
+                    overflow.check(sb);
+                }
+            }
+            sb.append(']');
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Iterator it = ((Collection)value).iterator(); it.hasNext();) {
+                if (first) {
+                    first = false;
+                } else {
+                    sb.append(',');
+                }
+                write(sb, it.next(), codec, overflow);
+                if (overflow != null) {
+                    overflow.check(sb);
+                }
+            }
+            sb.append(']');
+        } else if (value instanceof Object[]) {
+            Object[] arr = (Object[])value;
+            sb.append('[');
+            for (int i=0; i<arr.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                write(sb, arr[i], codec, overflow);
+                if (overflow != null) {
+                    overflow.check(sb);
+                }
+            }
+            sb.append(']');
+        } else if (value instanceof Integer) {
+            sb.append(((Integer)value).intValue());
+        } else if (value instanceof Long) {
+            sb.append(((Long)value).longValue());
+        } else if (value instanceof Double) {
+            writeDouble(sb, ((Double)value).doubleValue());
+        } else if (value instanceof Float) {
+            writeDouble(sb, ((Float)value).floatValue());
+        } else if (value instanceof Short) {
+            sb.append(((Short)value).shortValue());
+        } else if (value instanceof Byte) {
+            sb.append(((Byte)value).byteValue());
+        } else if (value instanceof Boolean) {
+            sb.append(((Boolean)value).booleanValue() ? "true" : "false");
+        } else if (value instanceof Character) {
+            quote(sb, String.valueOf(((Character)value).charValue()));
+        } else {
+            throw new RuntimeException("Result value "+value+" is not a recognized type");
+        }
+    }
+
+    /**
+     * Writes a Map as a JSON object.  Keys are converted to strings.
+     */
+    private static void writeMap(StringBuilder sb, Map map, BridgeCodec codec, Overflow overflow) {
+        sb.append('{');
+        boolean first = true;
+        for (Iterator it = map.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry)it.next();
+            if (first) {
+                first = false;
+            } else {
+                sb.append(',');
+            }
+            quote(sb, String.valueOf(e.getKey()));
+            sb.append(':');
+            write(sb, e.getValue(), codec, overflow);
+            if (overflow != null) {
+                overflow.check(sb);
+            }
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Writes a double.  Whole numbers are written without a fraction, and NaN or infinite
+     * values are written as null since JSON can't represent them.
+     */
+    private static void writeDouble(StringBuilder sb, double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            sb.append("null");
+        } else if (d == (long)d) {
+            sb.append((long)d);
+        } else {
+            sb.append(d);
+        }
+    }
+
+    /**
+     * Writes a string as a quoted JSON string.  In addition to the characters JSON requires to be
+     * escaped, U+2028, U+2029 and "&lt;/" are escaped so that the output is safe to embed in a script.
+     * @param sb The buffer to write to.
+     * @param str The string.
+     */
+    static void quote(StringBuilder sb, String str) {
+        quote(sb, str, null);
+    }
+
+    /**
+     * Writes a string as a quoted JSON string, passing the output to an overflow as it grows.
+     */
+    private static void quote(StringBuilder sb, String str, Overflow overflow) {
+        int len = str.length();
+        if (overflow == null || len < overflow.limit) {
+            sb.ensureCapacity(sb.length() + len + 2);
+        }
+        sb.append('"');
+        for (int i=0; i<len; i++) {
+            char c = str.charAt(i);
+            if (overflow != null && (i & 0xfff) == 0xfff) {
+                overflow.check(sb);
+            }
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                case '/':
+                    if (i > 0 && str.charAt(i-1) == '<') {
+                        sb.append('\\');
+                    }
+                    sb.append(c);
+                    break;
+                default:
+                    if (c < ' ' || c == 0x2028 || c == 0x2029) {
+                        sb.append("\\u").append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf])
+                                .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Writes bytes as base64, without padding to a line length.
+     * @param sb The buffer to write to.
+     * @param data The bytes.
+     * @param off Offset of the first byte to write.
+     * @param len Number of bytes to write.
+     */
+    static void writeBase64(StringBuilder sb, byte[] data, int off, int len) {
+        sb.ensureCapacity(sb.length() + (len + 2) / 3 * 4);
+        int end = off + len;
+        int i = off;
+        for (; i + 2 < end; i += 3) {
+            int n = (data[i] & 0xff) << 16 | (data[i+1] & 0xff) << 8 | (data[i+2] & 0xff);
+            sb.append(BASE64[n >> 18]).append(BASE64[(n >> 12) & 0x3f])
+                    .append(BASE64[(n >> 6) & 0x3f]).append(BASE64[n & 0x3f]);
+        }
+        int rest = end - i;
+        if (rest == 1) {
+            int n = (data[i] & 0xff) << 16;
+            sb.append(BASE64[n >> 18]).append(BASE64[(n >> 12) & 0x3f]).append("==");
+        } else if (rest == 2) {
+            int n = (data[i] & 0xff) << 16 | (data[i+1] & 0xff) << 8;
+            sb.append(BASE64[n >> 18]).append(BASE64[(n >> 12) & 0x3f])
+                    .append(BASE64[(n >> 6) & 0x3f]).append('=');
+        }
+    }
+
+    /**
+     * Takes the output of a large result off the buffer while it is written.  The writer checks the buffer
+     * between values, and every few thousand characters of long strings and byte arrays, so the buffer holds
+     * little more than {@link #limit} characters of the result at any time.
+     */
+    abstract static class Overflow {
+
+        /**
+         * Where the result starts in the buffer.
+         */
+        int start;
+
+        /**
+         * Number of characters of the result that the buffer can hold before {@link #overflow(java.lang.StringBuilder) }
+         * is called.
+         */
+        int limit;
+
+        /**
+         * Calls {@link #overflow(java.lang.StringBuilder) } if the buffer holds at least {@link #limit} characters
+         * of the result.
+         */
+        final void check(StringBuilder sb) {
+            if (sb.length() - start >= limit) {
+                overflow(sb);
+            }
+        }
+
+        /**
+         * Takes output off the buffer.  Characters from {@link #start} on are removed, apart from fewer
+         * than {@link #limit} at the end, which may be kept for the next call.
+         * @param sb The buffer.
+         */
+        abstract void overflow(StringBuilder sb);
+    }
+}
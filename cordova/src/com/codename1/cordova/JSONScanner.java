@@ -0,0 +1,387 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * A minimal cursor over a JSON string.  Used by the bridge to walk exec payloads
+ * in place, so that values can be skipped or sliced out without parsing them.
+ *
+ * <p>Instances are not thread-safe, but they are cheap, so each caller should create its own.</p>
+ * @author shannah
+ */
+final class JSONScanner {
+
+    /**
+     * The JSON being scanned.
+     */
+    private final String json;
+
+    /**
+     * Current position in the JSON string.
+     */
+    private int pos;
+
+    /**
+     * Creates a scanner positioned at the start of the given JSON string.
+     * @param json The JSON to scan.
+     */
+    JSONScanner(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Gets the JSON string being scanned.
+     * @return The JSON string.
+     */
+    String getJSON() {
+        return json;
+    }
+
+    /**
+     * Gets the current position.
+     * @return The index of the next character to be read.
+     */
+    int getPosition() {
+        return pos;
+    }
+
+    /**
+     * Moves the scanner to the given position.
+     * @param pos The index of the next character to be read.
+     */
+    void setPosition(int pos) {
+        this.pos = pos;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it.
+     * @return The next character, or -1 if the end of the input has been reached.
+     */
+    int peek() {
+        int len = json.length();
+        while (pos < len) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips whitespace and consumes the given character if it is next.
+     * @param c The character to consume.
+     * @return True if the character was consumed.
+     */
+    boolean consume(char c) {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips whitespace and consumes the given character.
+     * @param c The expected character.
+     * @throws IllegalArgumentException If the next character is something else.
+     */
+    void expect(char c) {
+        if (!consume(c)) {
+            throw error("Expected '"+c+"'");
+        }
+    }
+
+    /**
+     * Reads a string value.  The literal <code>null</code> is also accepted.
+     * @return The decoded string, or null.
+     */
+    String readString() {
+        int c = peek();
+        if (c == 'n') {
+            skipLiteral("null");
+            return null;
+        }
+        if (c != '"') {
+            throw error("Expected string");
+        }
+        int start = ++pos;
+        int len = json.length();
+
+        // Fast path: no escapes, so we can just slice the input.
+        while (pos < len) {
+            char ch = json.charAt(pos);
+            if (ch == '"') {
+                return json.substring(start, pos++);
+            }
+            if (ch == '\\') {
+                break;
+            }
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        sb.append(json.substring(start, pos));
+        while (pos < len) {
+            char ch = json.charAt(pos++);
+            if (ch == '"') {
+                return sb.toString();
+            }
+            if (ch != '\\') {
+                sb.append(ch);
+                continue;
+            }
+            if (pos >= len) {
+                break;
+            }
+            ch = json.charAt(pos++);
+            switch (ch) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > len) {
+                        throw error("Bad unicode escape");
+                    }
+                    sb.append((char)Integer.parseInt(json.substring(pos, pos+4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Skips over the next value, whatever its type.
+     */
+    void skipValue() {
+        int c = peek();
+        switch (c) {
+            case '"':
+                skipString();
+                return;
+            case '[':
+            case '{': {
+                int depth = 0;
+                int len = json.length();
+                while (pos < len) {
+                    char ch = json.charAt(pos);
+                    if (ch == '"') {
+                        skipString();
+                        continue;
+                    }
+                    pos++;
+                    if (ch == '[' || ch == '{') {
+                        depth++;
+                    } else if (ch == ']' || ch == '}') {
+                        if (--depth == 0) {
+                            return;
+                        }
+                    }
+                }
+                throw error("Unterminated "+(c == '[' ? "array" : "object"));
+            }
+            case -1:
+                throw error("Unexpected end of input");
+            default: {
+                // number, true, false or null
+                int len = json.length();
+                int start = pos;
+                while (pos < len) {
+                    char ch = json.charAt(pos);
+                    if (ch == ',' || ch == ']' || ch == '}' || ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t') {
+                        break;
+                    }
+                    pos++;
+                }
+                if (pos == start) {
+                    throw error("Unexpected character '"+(char)c+"'");
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the next value is valid JSON, and skips over it.  Unlike {@link #skipValue() }, which only
+     * matches brackets, every token is checked, so a value that passes can't contain anything but JSON.
+     * @throws IllegalArgumentException If the value isn't valid JSON.
+     */
+    void validateValue() {
+        int c = peek();
+        switch (c) {
+            case '"':
+                validateString();
+                return;
+            case '[':
+                pos++;
+                if (consume(']')) {
+                    return;
+                }
+                do {
+                    validateValue();
+                } while (consume(','));
+                expect(']');
+                return;
+            case '{':
+                pos++;
+                if (consume('}')) {
+                    return;
+                }
+                do {
+                    if (peek() != '"') {
+                        throw error("Expected property name");
+                    }
+                    validateString();
+                    expect(':');
+                    validateValue();
+                } while (consume(','));
+                expect('}');
+                return;
+            case 't':
+                skipLiteral("true");
+                return;
+            case 'f':
+                skipLiteral("false");
+                return;
+            case 'n':
+                skipLiteral("null");
+                return;
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                validateNumber();
+        }
+    }
+
+    /**
+     * Checks a string and skips over it.  The scanner must be positioned on the opening quote.
+     */
+    private void validateString() {
+        int len = json.length();
+        pos++;
+        while (pos < len) {
+            char ch = json.charAt(pos++);
+            if (ch == '"') {
+                return;
+            }
+            if (ch < ' ') {
+                throw error("Control character in string");
+            }
+            if (ch == '\\') {
+                if (pos >= len) {
+                    break;
+                }
+                ch = json.charAt(pos++);
+                if (ch == 'u') {
+                    for (int i=0; i<4; i++) {
+                        if (pos >= len || Character.digit(json.charAt(pos++), 16) < 0) {
+                            throw error("Bad unicode escape");
+                        }
+                    }
+                } else if ("\"\\/bfnrt".indexOf(ch) < 0) {
+                    throw error("Bad escape");
+                }
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Checks a number and skips over it.
+     */
+    private void validateNumber() {
+        int start = pos;
+        if (pos < json.length() && json.charAt(pos) == '-') {
+            pos++;
+        }
+        if (pos < json.length() && json.charAt(pos) == '0') {
+            pos++;
+        } else if (skipDigits() == 0) {
+            pos = start;
+            throw error("Unexpected character '"+json.charAt(pos)+"'");
+        }
+        if (pos < json.length() && json.charAt(pos) == '.') {
+            pos++;
+            if (skipDigits() == 0) {
+                throw error("Bad number");
+            }
+        }
+        if (pos < json.length() && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < json.length() && (json.charAt(pos) == '+' || json.charAt(pos) == '-')) {
+                pos++;
+            }
+            if (skipDigits() == 0) {
+                throw error("Bad number");
+            }
+        }
+    }
+
+    /**
+     * Skips over digits.
+     * @return The number of digits skipped.
+     */
+    private int skipDigits() {
+        int start = pos;
+        int len = json.length();
+        while (pos < len && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos - start;
+    }
+
+    /**
+     * Skips over a string without decoding it.  The scanner must be positioned on the opening quote.
+     */
+    private void skipString() {
+        int len = json.length();
+        pos++;
+        while (pos < len) {
+            char ch = json.charAt(pos++);
+            if (ch == '\\') {
+                pos++;
+            } else if (ch == '"') {
+                return;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Consumes the given literal.
+     * @param literal The expected literal.  E.g. "null".
+     */
+    void skipLiteral(String literal) {
+        peek();
+        if (!json.startsWith(literal, pos)) {
+            throw error("Expected "+literal);
+        }
+        pos += literal.length();
+    }
+
+    /**
+     * Creates an exception describing a syntax error at the current position.
+     * @param message The error message.
+     * @return The exception, to be thrown by the caller.
+     */
+    IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message+" at position "+pos+" of JSON input");
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.io.Log;
+import com.codename1.ui.Display;
+import java.util.LinkedList;
+
+/**
+ * A small pool of worker threads with a bounded queue, used to run plugin actions off the EDT.
+ *
+ * <p>Each plugin gets its own executor, so a slow plugin can only fill up its own queue and can't
+ * starve other plugins.  When the queue is full, new tasks are rejected rather than blocking the caller.</p>
+ *
+ * <p>Worker threads are started on demand, and exit after they have been idle for a while, so an
+ * executor that isn't being used doesn't hold on to any threads.</p>
+ * @author shannah
+ * @see CordovaApplication#setPluginExecutor(java.lang.String, com.codename1.cordova.PluginExecutor)
+ * @see ActionOptions#setBackground(boolean)
+ */
+public class PluginExecutor {
+
+    /**
+     * How long an idle worker waits for a task before it exits.
+     */
+    private static final int IDLE_TIMEOUT = 30000;
+
+    /**
+     * Name used for the worker threads.
+     */
+    private final String name;
+
+    /**
+     * Maximum number of worker threads.
+     */
+    private final int poolSize;
+
+    /**
+     * Maximum number of tasks that can wait in the queue.
+     */
+    private final int maxQueueSize;
+
+    /**
+     * Tasks waiting for a worker.
+     */
+    private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+
+    /**
+     * Number of worker threads currently alive.
+     */
+    private int workers;
+
+    /**
+     * Number of worker threads waiting for a task that haven't been signalled yet.
+     */
+    private int idleWorkers;
+
+    /**
+     * Number of idle workers that have been signalled for a task but haven't woken up yet.
+     */
+    private int signalled;
+
+    /**
+     * Whether the executor has been shut down.
+     */
+    private boolean shutdown;
+
+    /**
+     * Creates an executor.
+     * @param name Name used for the worker threads.
+     * @param poolSize Maximum number of worker threads.  Must be at least 1.
+     * @param maxQueueSize Maximum number of tasks that can wait for a worker.
+     */
+    public PluginExecutor(String name, int poolSize, int maxQueueSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.name = name;
+        this.poolSize = poolSize;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Queues a task to run on one of the worker threads.
+     * @param task The task to run.
+     * @return True if the task was queued.  False if the queue was full or the executor is shut down.
+     */
+    public boolean execute(Runnable task) {
+        boolean startWorker = false;
+        synchronized (queue) {
+            if (shutdown || queue.size() >= maxQueueSize) {
+                return false;
+            }
+            queue.addLast(task);
+            if (idleWorkers > 0) {
+                // Reserve the idle worker, so the next task in the same burst starts another one.
+                idleWorkers--;
+                signalled++;
+                queue.notify();
+            } else if (workers < poolSize) {
+                workers++;
+                startWorker = true;
+            }
+        }
+        if (startWorker) {
+            Display.getInstance().startThread(new Worker(), name).start();
+        }
+        return true;
+    }
+
+    /**
+     * Shuts down the executor.  Tasks that are already queued will still run, but new tasks are rejected.
+     */
+    public void shutdown() {
+        synchronized (queue) {
+            shutdown = true;
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Gets the number of tasks waiting for a worker.
+     * @return The queue size.
+     */
+    public int getQueueSize() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Gets the maximum number of worker threads.
+     * @return The pool size.
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Gets the maximum number of tasks that can wait for a worker.
+     * @return The maximum queue size.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Worker loop.  Runs tasks until the queue has been empty for {@link #IDLE_TIMEOUT} ms.
+     */
+    private class Worker implements Runnable {
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (queue) {
+                    if (queue.isEmpty() && !shutdown) {
+                        idleWorkers++;
+                        try {
+                            queue.wait(IDLE_TIMEOUT);
+                        } catch (InterruptedException ex) {
+                        }
+                        if (signalled > 0) {
+                            signalled--;
+                        } else {
+                            idleWorkers--;
+                        }
+                    }
+                    if (queue.isEmpty()) {
+                        workers--;
+                        return;
+                    }
+                    task = queue.removeFirst();
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    Log.e(t);
+                }
+            }
+        }
+    }
+}
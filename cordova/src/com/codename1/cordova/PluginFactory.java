@@ -0,0 +1,35 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * Creates a plugin on demand.  Registering a factory instead of a plugin instance defers constructing
+ * the plugin until the first exec call for its service, so plugins that a session never uses cost nothing
+ * at startup.
+ * @author shannah
+ * @see CordovaApplication#addPlugin(java.lang.String, com.codename1.cordova.PluginFactory, boolean)
+ * @see CordovaApplication#addGlobalPlugin(java.lang.String, com.codename1.cordova.PluginFactory, boolean)
+ */
+public interface PluginFactory {
+
+    /**
+     * Creates the plugin.  Called on the first exec call for the service, on the thread that
+     * received the call (usually the EDT).
+     * @param service The service that the plugin is being created for.
+     * @return The plugin.  Must not be null.
+     */
+    public CordovaPlugin createPlugin(String service);
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A plugin registered by factory.  Shared registrations create one instance per factory, which is
+ * used by every application.  Other registrations create one instance per application.
+ * @author shannah
+ */
+final class PluginRegistration {
+
+    /**
+     * Instances created by shared registrations, keyed by factory.
+     */
+    private static final Map<PluginFactory,CordovaPlugin> sharedInstances = new HashMap<PluginFactory,CordovaPlugin>();
+
+    /**
+     * The factory.
+     */
+    final PluginFactory factory;
+
+    /**
+     * Whether the instance is shared across applications.
+     */
+    final boolean shared;
+
+    /**
+     * Creates a registration.
+     * @param factory The factory.
+     * @param shared True to share one instance across all applications.
+     */
+    PluginRegistration(PluginFactory factory, boolean shared) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Factory cannot be null");
+        }
+        this.factory = factory;
+        this.shared = shared;
+    }
+
+    /**
+     * Gets the plugin, creating it if necessary.  Shared instances are cached here.  Callers are
+     * expected to cache unshared instances themselves.
+     * @param service The service the plugin is for.
+     * @return The plugin.
+     * @throws RuntimeException If the factory fails or returns null.
+     */
+    CordovaPlugin getPlugin(String service) {
+        if (!shared) {
+            return create(service);
+        }
+        synchronized (sharedInstances) {
+            CordovaPlugin plugin = sharedInstances.get(factory);
+            if (plugin == null) {
+                plugin = create(service);
+                sharedInstances.put(factory, plugin);
+            }
+            return plugin;
+        }
+    }
+
+    private CordovaPlugin create(String service) {
+        CordovaPlugin plugin = factory.createPlugin(service);
+        if (plugin == null) {
+            throw new RuntimeException("Plugin factory for "+service+" returned null");
+        }
+        return plugin;
+    }
+}
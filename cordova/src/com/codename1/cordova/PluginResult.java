@@ -0,0 +1,101 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.cordova.CordovaApplication.Result;
+
+/**
+ * A result that is sent from a plugin back to javascript using {@link CallbackContext#sendPluginResult(com.codename1.cordova.PluginResult) }.
+ *
+ * <p>Unlike {@link com.codename1.util.Callback#onSucess(java.lang.Object) }, a PluginResult can set
+ * <code>keepCallback</code> so that the javascript callback stays registered and can receive more results.  This
+ * is useful for actions that stream data, such as sensor readings or download progress.  Send the final result with
+ * <code>keepCallback</code> set to false to close the callback.</p>
+ *
+ * <p>This mirrors the PluginResult class of the <a href="https://cordova.apache.org/docs/en/latest/guide/platforms/android/plugin.html">Cordova Android Plugin API</a>.</p>
+ * @author shannah
+ */
+public class PluginResult {
+
+    /**
+     * The status of the result.
+     */
+    private final Result status;
+
+    /**
+     * The result value.
+     */
+    private final Object message;
+
+    /**
+     * Whether javascript should keep the callback to receive more results.
+     */
+    private boolean keepCallback;
+
+    /**
+     * Creates a result with no message.
+     * @param status The status.  Use {@link Result#NO_RESULT} with <code>keepCallback</code> to tell
+     * javascript that results will come later.
+     */
+    public PluginResult(Result status) {
+        this(status, null);
+    }
+
+    /**
+     * Creates a result.
+     * @param status The status.  {@link Result#OK} is delivered to the success callback.  Any status other than
+     * <code>OK</code> and <code>NO_RESULT</code> is delivered to the error callback.
+     * @param message The result value.  Supports the same types as {@link com.codename1.util.Callback#onSucess(java.lang.Object) }.
+     */
+    public PluginResult(Result status, Object message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    /**
+     * Sets whether javascript should keep the callback registered to receive more results.
+     * @param keepCallback True to keep the callback.
+     * @return Self for chaining.
+     */
+    public PluginResult setKeepCallback(boolean keepCallback) {
+        this.keepCallback = keepCallback;
+        return this;
+    }
+
+    /**
+     * Checks whether javascript should keep the callback registered to receive more results.
+     * @return True to keep the callback.
+     */
+    public boolean getKeepCallback() {
+        return keepCallback;
+    }
+
+    /**
+     * Gets the status of the result.
+     * @return The status.
+     */
+    public Result getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the result value.
+     * @return The result value.
+     */
+    public Object getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+/**
+ * A result value that is already serialized as JSON.
+ *
+ * <p>When a plugin already holds its data as a JSON string (e.g. a cached server response), it can wrap it in
+ * a <code>RawJSON</code> and pass it to {@link CallbackContext#success(java.lang.Object) }.  The JSON is embedded in the
+ * callback script as is, so javascript receives the parsed value, and neither side has to escape or parse the string.
+ * <code>RawJSON</code> values can also be nested inside Maps and Lists.</p>
+ *
+ * <p>Since the JSON is evaluated as javascript, it is checked when it is wrapped, and anything that isn't a single
+ * valid JSON value is rejected.  U+2028, U+2029 and "&lt;/" inside its strings are escaped, as
+ * {@link JSONResultWriter} does for strings.</p>
+ * @author shannah
+ */
+public final class RawJSON {
+
+    /**
+     * The JSON.
+     */
+    private final String json;
+
+    /**
+     * Wraps a JSON string.
+     * @param json The JSON.  Must be a single valid JSON value.
+     * @throws IllegalArgumentException If the JSON is empty or isn't a single valid JSON value.
+     */
+    public RawJSON(String json) {
+        this(json, true);
+    }
+
+    /**
+     * Wraps a JSON string.
+     * @param json The JSON.
+     * @param validate False if the JSON was written by {@link JSONResultWriter}, so it doesn't need to be checked.
+     */
+    RawJSON(String json, boolean validate) {
+        if (json == null || json.trim().length() == 0) {
+            throw new IllegalArgumentException("JSON cannot be empty");
+        }
+        if (validate) {
+            JSONScanner scanner = new JSONScanner(json);
+            scanner.validateValue();
+            if (scanner.peek() != -1) {
+                throw scanner.error("Unexpected trailing characters");
+            }
+            json = escapeForScript(json);
+        }
+        this.json = json;
+    }
+
+    /**
+     * Escapes U+2028 and U+2029, which are allowed in JSON strings but end the line in older javascript engines,
+     * and "&lt;/", so that the JSON is safe to embed in a script.  The JSON has been validated, so these can only
+     * appear inside strings.
+     */
+    private static String escapeForScript(String json) {
+        if (json.indexOf('\u2028') < 0 && json.indexOf('\u2029') < 0 && json.indexOf("</") < 0) {
+            return json;
+        }
+        int len = json.length();
+        StringBuilder sb = new StringBuilder(len + 16);
+        for (int i=0; i<len; i++) {
+            char c = json.charAt(i);
+            if (c == '\u2028') {
+                sb.append("\\u2028");
+            } else if (c == '\u2029') {
+                sb.append("\\u2029");
+            } else if (c == '/' && i > 0 && json.charAt(i-1) == '<') {
+                sb.append("\\/");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the JSON.
+     * @return The JSON.
+     */
+    public String getJSON() {
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the results of actions that have a {@link ActionOptions#setCacheTTL(int) cache TTL}.
+ *
+ * <p>Results are stored as their JSON, keyed by service, action and the JSON of the arguments, so a
+ * cached result can't be changed by the plugin after it is sent.</p>
+ * @author shannah
+ */
+class ResultCache {
+
+    /**
+     * Results longer than this many characters of JSON aren't cached.
+     */
+    static final int MAX_RESULT_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of results kept.
+     */
+    private int maxSize = 64;
+
+    /**
+     * Cached results in access order, so that the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String,ResultCache.Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * Builds the cache key for a call.
+     */
+    static String key(String service, String action, String argsJSON) {
+        return service + '\n' + action + '\n' + (argsJSON == null ? "[]" : argsJSON);
+    }
+
+    /**
+     * Gets a cached result.
+     * @param key The key, from {@link #key(java.lang.String, java.lang.String, java.lang.String) }.
+     * @return The cached result, or null if it isn't cached or has expired.
+     */
+    synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches a result.
+     * @param key The key.
+     * @param service The service, for invalidation.
+     * @param action The action, for invalidation.
+     * @param json The result JSON.
+     * @param ttl How long the result can be used, in milliseconds.
+     */
+    synchronized void put(String key, String service, String action, String json, int ttl) {
+        if (maxSize == 0 || json.length() > MAX_RESULT_SIZE) {
+            return;
+        }
+        entries.put(key, new Entry(service, action, json, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Removes cached results.
+     * @param service The service, or null for all services.
+     * @param action The action, or null for all actions of the service.
+     */
+    synchronized void invalidate(String service, String action) {
+        if (service == null) {
+            entries.clear();
+            return;
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (service.equals(entry.service) && (action == null || action.equals(entry.action))) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of results kept.
+     * @param maxSize The maximum.  0 disables the cache.
+     */
+    synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize < 0 ? 0 : maxSize;
+        if (this.maxSize == 0) {
+            entries.clear();
+        } else {
+            for (Iterator<String> it = entries.keySet().iterator(); entries.size() > this.maxSize && it.hasNext();) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum number of results kept.
+     */
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * A cached result.
+     */
+    static class Entry {
+        final String service;
+        final String action;
+        final String json;
+        final long expires;
+
+        Entry(String service, String action, String json, long expires) {
+            this.service = service;
+            this.action = action;
+            this.json = json;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2015 Codename One
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.codename1.cordova;
+
+import com.codename1.io.Log;
+import com.codename1.ui.BrowserComponent;
+import com.codename1.ui.Display;
+import com.codename1.ui.events.ActionEvent;
+import com.codename1.ui.events.ActionListener;
+import com.codename1.ui.events.BrowserNavigationCallback;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of web views that have already been created and have loaded a page, so that a
+ * {@link CordovaApplication} can be shown without waiting for the native web view to start up
+ * and for the page and cordova.js to load.
+ *
+ * <p>Call {@link #prewarm(java.lang.String, int) } from your app's <code>init()</code> with the pages
+ * you are going to open.  The web views are created one per EDT cycle so that startup isn't held up.
+ * {@link CordovaApplication#load(java.lang.String) } then takes a warm web view for the URL if there is one,
+ * and the pool creates a replacement for it.  Pages in the pool stop at <code>deviceready</code>, since the bridge
+ * isn't installed until the page is claimed.</p>
+ *
+ * <pre>
+ * public void init(Object context) {
+ *     WebViewPool.prewarm("help.html", 1);
+ *     WebViewPool.prewarm("checkout.html", 1);
+ * }
+ * </pre>
+ *
+ * <p>Each warm web view holds on to a native web view and its page, so keep the pool small.
+ * These methods must be called on the EDT.</p>
+ * @author shannah
+ */
+public final class WebViewPool {
+
+    /**
+     * Number of warm web views to keep for each URL.
+     */
+    private static final Map<String,Integer> targets = new HashMap<String,Integer>();
+
+    /**
+     * Warm web views, oldest first.
+     */
+    private static final ArrayList<Entry> pool = new ArrayList<Entry>();
+
+    /**
+     * Whether the creation of a web view has been scheduled.  Web views are created one at a time, and each
+     * creation schedules the next one, so that only one is created per EDT cycle.
+     */
+    private static boolean scheduled;
+
+    private WebViewPool() {
+
+    }
+
+    /**
+     * Keeps the given number of warm web views for a URL.  Missing web views are created in the
+     * background, one per EDT cycle.
+     * @param url The URL, as passed to {@link CordovaApplication#load(java.lang.String) }.
+     * @param size The number of web views to keep.  0 stops keeping web views for the URL, and
+     * releases the ones in the pool.
+     */
+    public static void prewarm(String url, int size) {
+        if (size <= 0) {
+            targets.remove(url);
+            for (int i=pool.size()-1; i>=0; i--) {
+                if (pool.get(i).url.equals(url)) {
+                    pool.remove(i).release();
+                }
+            }
+            return;
+        }
+        targets.put(url, new Integer(size));
+        refill();
+    }
+
+    /**
+     * Releases all the warm web views and stops keeping any.
+     */
+    public static void clear() {
+        targets.clear();
+        for (int i=0; i<pool.size(); i++) {
+            pool.get(i).release();
+        }
+        pool.clear();
+    }
+
+    /**
+     * Gets the number of warm web views for a URL.
+     * @param url The URL.
+     * @return The number of web views in the pool for the URL.
+     */
+    public static int getAvailable(String url) {
+        int out = 0;
+        for (int i=0; i<pool.size(); i++) {
+            if (pool.get(i).url.equals(url)) {
+                out++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Takes a warm web view for a URL out of the pool, and schedules a replacement for it.
+     * @param url The URL.
+     * @return The web view, or null if there are none for the URL.
+     */
+    static Entry claim(String url) {
+        for (int i=0; i<pool.size(); i++) {
+            Entry entry = pool.get(i);
+            if (entry.url.equals(url)) {
+                pool.remove(i);
+                entry.release();
+                refill();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Schedules the creation of a web view if any URL has fewer than its target number.  The task creates
+     * one web view and then schedules the next, until every URL has its target number.
+     */
+    private static void refill() {
+        if (scheduled || findMissing() == null) {
+            return;
+        }
+        scheduled = true;
+        Display.getInstance().callSerially(new Runnable() {
+            public void run() {
+                scheduled = false;
+                String url = findMissing();
+                if (url == null) {
+                    return;
+                }
+                try {
+                    pool.add(new Entry(url));
+                } catch (Exception ex) {
+                    // Don't keep trying a URL that can't be loaded.
+                    Log.e(ex);
+                    targets.remove(url);
+                }
+                refill();
+            }
+        });
+    }
+
+    /**
+     * Finds a URL that has fewer warm web views than its target.
+     * @return The URL, or null if every URL has its target number.
+     */
+    private static String findMissing() {
+        for (Map.Entry<String,Integer> target : targets.entrySet()) {
+            if (getAvailable(target.getKey()) < target.getValue().intValue()) {
+                return target.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A warm web view.
+     */
+    static final class Entry {
+        final String url;
+        final BrowserComponent webview;
+        private volatile boolean loaded;
+        private volatile boolean nativeReadyRequested;
+
+        private final ActionListener loadListener = new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+                loaded = true;
+            }
+        };
+
+        Entry(String url) throws IOException {
+            this.url = url;
+            webview = new BrowserComponent();
+            webview.addWebEventListener("onLoad", loadListener);
+            webview.setBrowserNavigationCallback(new BrowserNavigationCallback() {
+                public boolean shouldNavigate(String url) {
+                    if (url != null && url.indexOf(CordovaApplication.NATIVE_READY_PATH) >= 0) {
+                        // Remember the request so the bridge can be installed when the
+                        // web view is claimed.
+                        nativeReadyRequested = true;
+                        return false;
+                    }
+                    return true;
+                }
+            });
+            webview.setURLHierarchy(url);
+        }
+
+        /**
+         * Removes the load listener the pool added to the web view.  The navigation callback is
+         * replaced by the app that claims the web view.
+         */
+        void release() {
+            webview.removeWebEventListener("onLoad", loadListener);
+        }
+
+        /**
+         * Checks whether the page has finished loading.
+         */
+        boolean isLoaded() {
+            return loaded;
+        }
+
+        /**
+         * Checks whether cordova.js has asked for the bridge.
+         */
+        boolean isNativeReadyRequested() {
+            return nativeReadyRequested;
+        }
+    }
+}
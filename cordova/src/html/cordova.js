@@ -172,6 +172,82 @@ function createEvent(type, data) {
 }
 
 
+// Binary results that native code is sending in chunks, keyed by transfer id.
+var binaryTransfers = {};
+var textTransfers = {};
+
+/**
+ * Reads a large result that the native side wrote to a file, and asks the native side to delete it.
+ * This is synchronous so that the result is delivered in order with the other results.  If the web view
+ * doesn't allow the file to be read, the native side is told to send later results in chunks instead.
+ */
+function readResultFile(url) {
+    var exec = require('cordova/exec');
+    var xhr = new XMLHttpRequest();
+    try {
+        xhr.open('GET', url, false);
+        xhr.send(null);
+        // file: URLs report status 0 when they are read successfully.
+        if ((xhr.status !== 0 && xhr.status !== 200) || !xhr.responseText) {
+            throw new Error('Failed to read result file ' + url + ' (status ' + xhr.status + ')');
+        }
+        return xhr.responseText;
+    } catch (err) {
+        exec(null, null, 'CN1Bridge', 'fileUnreadable', []);
+        throw err;
+    } finally {
+        exec(null, null, 'CN1Bridge', 'releaseFile', [url]);
+    }
+}
+
+function binaryMessageFromNative(message) {
+    if (message && message.CDVType == 'ArrayBuffer') {
+        return require('cordova/base64').toArrayBuffer(message.data);
+    }
+    if (message && message.CDVType == 'CN1Bytes') {
+        return require('cordova/cn1codec').toArrayBuffer(message.data, message.length);
+    }
+    if (message && message.CDVType == 'CN1BinaryTransfer') {
+        var array = binaryTransfers[message.id];
+        delete binaryTransfers[message.id];
+        return array ? array.buffer : new ArrayBuffer(0);
+    }
+    if (message && message.CDVType == 'CN1TextTransfer') {
+        var transfer = textTransfers[message.id];
+        delete textTransfers[message.id];
+        if (!transfer) {
+            return null;
+        }
+        if (transfer.parts) {
+            return binaryMessageFromNative(JSON.parse(transfer.parts.join('')));
+        }
+        if (!transfer.url) {
+            throw new Error(transfer.error);
+        }
+        return binaryMessageFromNative(JSON.parse(readResultFile(transfer.url)));
+    }
+    return nestedBinaryFromNative(message);
+}
+
+/**
+ * Converts binary values inside a result (byte[] values in maps, lists and arrays on the native side)
+ * to ArrayBuffers.  Objects and arrays are updated in place.
+ */
+function nestedBinaryFromNative(value) {
+    if (!value || typeof value !== 'object') {
+        return value;
+    }
+    if (value.CDVType == 'ArrayBuffer' || value.CDVType == 'CN1Bytes') {
+        return binaryMessageFromNative(value);
+    }
+    for (var key in value) {
+        if (value.hasOwnProperty(key)) {
+            value[key] = nestedBinaryFromNative(value[key]);
+        }
+    }
+    return value;
+}
+
 var cordova = {
     define:define,
     require:require,
@@ -256,7 +332,8 @@ var cordova = {
         IO_EXCEPTION: 6,
         INVALID_ACTION: 7,
         JSON_EXCEPTION: 8,
-        ERROR: 9
+        ERROR: 9,
+        TIMEOUT: 10
     },
 
     /**
@@ -275,6 +352,89 @@ var cordova = {
         cordova.callbackFromNative(callbackId, false, args.status, [args.message], args.keepCallback);
     },
 
+    /**
+     * Called by native code to deliver several results in a single evaluation.
+     * Each entry is [callbackId, isSuccess, status, message, keepCallback], optionally
+     * followed by the number of milliseconds that the result can be cached for.  callbackId
+     * may be an array of IDs that all get the result.  Binary messages, and binary values nested in
+     * objects and arrays, are converted to ArrayBuffers.
+     */
+    callbacksFromNative: function(batch) {
+        for (var i = 0; i < batch.length; i++) {
+            var entry = batch[i];
+            try {
+                // Identical calls that shared one invocation on the native side get the
+                // result together, with an array of callback IDs.
+                var ids = typeof entry[0] === 'string' ? [entry[0]] : entry[0];
+                var message;
+                try {
+                    message = binaryMessageFromNative(entry[3]);
+                } catch (err) {
+                    // The result couldn't be read back (e.g. its file couldn't be written or read).
+                    // Fail the callbacks rather than leaving them waiting.
+                    console && console.log && console.log("Error reading result for callbackId: " + ids + " : " + err);
+                    entry = [ids, false, cordova.callbackStatus.IO_EXCEPTION, null, entry[4]];
+                    message = String(err && err.message || err);
+                }
+                if (entry[1]) {
+                    // The native side says this result can be reused for entry[5] ms, if it is set.
+                    require('cordova/exec').cacheResult(ids[0], message, entry[5] || 0);
+                }
+                for (var j = 0; j < ids.length; j++) {
+                    try {
+                        cordova.callbackFromNative(ids[j], entry[1], entry[2], [message], entry[4]);
+                    } catch (err) {
+                        // Already logged by callbackFromNative.  Keep delivering to the other callbacks.
+                    }
+                }
+            } catch (err) {
+                console && console.log && console.log("Error delivering result: " + err);
+            }
+        }
+    },
+
+    /**
+     * Called by native code to deliver one chunk of a large binary result.  Chunks are
+     * decoded straight into a buffer of the full length, which is handed to the callback
+     * when the result itself arrives.  encoding is 'compact', followed by the number of bytes
+     * in the chunk, for chunks in the compact encoding, and omitted for base64.
+     */
+    binaryChunkFromNative: function(transferId, length, offset, data, encoding, chunkLength) {
+        var array = binaryTransfers[transferId];
+        if (!array) {
+            array = binaryTransfers[transferId] = new Uint8Array(length);
+        }
+        if (encoding === 'compact') {
+            require('cordova/cn1codec').decodeCompact(data, chunkLength, array, offset);
+            return;
+        }
+        var decoded = atob(data);
+        for (var i = 0, len = decoded.length; i < len; i++) {
+            array[offset + i] = decoded.charCodeAt(i);
+        }
+    },
+
+    /**
+     * Called by native code to deliver one chunk of the JSON of a large result.  The
+     * chunks are joined and parsed when the result itself arrives.
+     */
+    textChunkFromNative: function(transferId, chunk) {
+        var transfer = textTransfers[transferId];
+        if (!transfer) {
+            transfer = textTransfers[transferId] = {parts: []};
+        }
+        transfer.parts.push(chunk);
+    },
+
+    /**
+     * Called by native code when the JSON of a large result has been written to a file.
+     * The file is read when the result itself arrives.  If the file couldn't be written, url is
+     * null and error says why, and the callback fails with IO_EXCEPTION.
+     */
+    textFileFromNative: function(transferId, url, error) {
+        textTransfers[transferId] = {url: url, error: error};
+    },
+
     /**
      * Called by native code when returning the result from an action.
      */
@@ -846,7 +1006,16 @@ var cordova = require('cordova'),
     vcHeaderValue = null,
     commandQueue = [], // Contains pending JS->Native messages.
     isInContextOfEvalJs = 0,
-    failSafeTimerId = 0;
+    failSafeTimerId = 0,
+    cn1ExecQueue = [], // Contains pending JS->Native messages for CodenameOneExec in queued mode.
+    cn1QueuedMode = true,
+    cn1ResultCache = {}, // Results the native side said can be reused, keyed by service.action:args.
+    cn1ResultCacheCount = 0,
+    cn1CacheableActions = {}, // Whether results of each service.action have been cached, once one has arrived.
+    CN1_RESULT_CACHE_MAX = 200,
+    CN1_BATCH_MAX_COMMANDS = 100, // Most commands sent in one CN1ExecBatch call.
+    CN1_BATCH_MAX_ENCODED = 64 * 1024, // Most URL-encoded characters sent in one CN1ExecBatch call.
+    cn1ExecPriority = null; // Priority hint for exec calls made inside CodenameOneExec.withPriority().
 
 function shouldBundleCommandJson() {
     if (bridgeMode === jsToNativeModes.XHR_WITH_PAYLOAD) {
@@ -869,6 +1038,8 @@ function massageArgsJsToNative(args) {
     }
     var ret = [];
     args.forEach(function(arg, i) {
+        // Always base64: calls to the native side are URL-encoded, which would take the
+        // compact encoding's characters to nine bytes each.
         if (utils.typeName(arg) == 'ArrayBuffer') {
             ret.push({
                 'CDVType': 'ArrayBuffer',
@@ -960,16 +1131,35 @@ function CodenameOneExec() {
     actionArgs = actionArgs || [];
 
 
+    actionArgs = massageArgsJsToNative(actionArgs);
+    var argsJSON = JSON.stringify(actionArgs);
+
+    // Answer from the cache if the native side said this result can be reused.
+    if (cn1ResultCacheCount && successCallback) {
+        var key = service + '.' + action + ':' + argsJSON;
+        var cached = cn1ResultCache[key];
+        if (cached && cached.expires > +new Date()) {
+            var value = cn1CloneResult(cached.value);
+            setTimeout(function() {
+                successCallback(value);
+            }, 0);
+            return callbackId;
+        }
+    }
+
     // Register the callbacks and add the callbackId to the positional
     // arguments if given.
     if (successCallback || failCallback) {
         callbackId = service + cordova.callbackId++;
         cordova.callbacks[callbackId] =
-            {success:successCallback, fail:failCallback};
+            {success:successCallback, fail:failCallback, service:service, action:action};
+        if (cn1CacheableActions[service + '.' + action] !== false) {
+            // Keep the arguments to cache the result under, unless results of this action
+            // have never been cached.
+            cordova.callbacks[callbackId].args = argsJSON;
+        }
     }
 
-    actionArgs = massageArgsJsToNative(actionArgs);
-
     /*
     var command = [callbackId, service, action, actionArgs];
 
@@ -992,10 +1182,222 @@ function CodenameOneExec() {
     */
    //alert("About to call CN1Exec");
    //alert(window.CN1Exec);
-   window.CN1Exec.apply(window, [callbackId, service, action, JSON.stringify(actionArgs)]);
+   if (cn1QueuedMode && window.CN1ExecBatch) {
+       // Stringify now to effectively clone the command arguments in case they
+       // are mutated before the queue is flushed.  All commands issued in the
+       // same tick cross the bridge together in CN1ExecBatch calls.
+       var commandJSON = '[' + JSON.stringify(callbackId) + ',' + JSON.stringify(service) + ',' +
+               JSON.stringify(action) + ',' + argsJSON +
+               (cn1ExecPriority ? ',' + JSON.stringify(cn1ExecPriority) : '') + ']';
+       cn1ExecQueue.push({json: commandJSON, size: cn1EncodedLength(commandJSON),
+               args: [callbackId, service, action, argsJSON, cn1ExecPriority]});
+       if (cn1ExecPriority === 'high') {
+           // Don't make a call the user is waiting on wait for the end of the tick.
+           cn1FlushExecQueue();
+       } else if (cn1ExecQueue.length == 1) {
+           setTimeout(cn1FlushExecQueue, 0);
+       }
+   } else if (cn1ExecPriority) {
+       window.CN1Exec.apply(window, [callbackId, service, action, argsJSON, cn1ExecPriority]);
+   } else {
+       window.CN1Exec.apply(window, [callbackId, service, action, argsJSON]);
+   }
    //window.location.href = "/!cn1command/ca_weblite_codename1_js_JavascriptContext_LOOKUP_TABLE0[0].CN1Exec?String=10&String=bar";
+   return callbackId;
+}
+
+/**
+ * Sends all queued exec commands to the native side.  Every call crosses the bridge as a
+ * URL-encoded navigation, so the queue is sent in batches of at most CN1_BATCH_MAX_COMMANDS
+ * commands and CN1_BATCH_MAX_ENCODED encoded characters.  A command that is too large for a
+ * batch on its own is sent by itself with CN1Exec.
+ */
+function cn1FlushExecQueue() {
+    if (!cn1ExecQueue.length) {
+        return;
+    }
+    var queue = cn1ExecQueue;
+    cn1ExecQueue = [];
+    var batch = [], size = 0;
+    var sendBatch = function() {
+        if (batch.length) {
+            window.CN1ExecBatch.apply(window, ['[' + batch.join(',') + ']']);
+            batch = [];
+            size = 0;
+        }
+    };
+    for (var i = 0; i < queue.length; i++) {
+        var command = queue[i];
+        if (command.size > CN1_BATCH_MAX_ENCODED) {
+            sendBatch();
+            var args = command.args;
+            if (args[4]) {
+                window.CN1Exec.apply(window, args);
+            } else {
+                window.CN1Exec.apply(window, args.slice(0, 4));
+            }
+            continue;
+        }
+        // Each comma between commands is encoded as %2C.
+        if (batch.length >= CN1_BATCH_MAX_COMMANDS || size + command.size + 3 > CN1_BATCH_MAX_ENCODED) {
+            sendBatch();
+        }
+        batch.push(command.json);
+        size += command.size + 3;
+    }
+    sendBatch();
+}
+
+/**
+ * Gets the length of a string once it is URL-encoded, without encoding it.
+ */
+function cn1EncodedLength(str) {
+    var len = 0;
+    for (var i = 0, n = str.length; i < n; i++) {
+        var c = str.charCodeAt(i);
+        if ((c >= 48 && c <= 57) || (c >= 65 && c <= 90) || (c >= 97 && c <= 122) ||
+                c == 45 || c == 46 || c == 95 || c == 126) {
+            len += 1;
+        } else if (c < 0x80) {
+            len += 3;
+        } else if (c < 0x800) {
+            len += 6;
+        } else if (c >= 0xD800 && c <= 0xDBFF) {
+            // A surrogate pair is 4 bytes of UTF-8.
+            len += 12;
+            i++;
+        } else {
+            len += 9;
+        }
+    }
+    return len;
+}
+
+/**
+ * Enables or disables queued mode.  In queued mode (the default), exec calls made in
+ * the same tick are buffered and sent to the native side as one batch.
+ */
+CodenameOneExec.setQueuedMode = function(queued) {
+    cn1QueuedMode = queued;
+    if (!queued) {
+        cn1FlushExecQueue();
+    }
+};
+
+/**
+ * Sends any queued exec calls to the native side immediately.
+ */
+CodenameOneExec.flushQueue = cn1FlushExecQueue;
+
+/**
+ * Encodings of binary results that this cordova.js can decode.  The native side picks one of
+ * them when it installs the bridge.  Binary arguments are always sent as base64.
+ */
+CodenameOneExec.codecs = ['json', 'compact'];
+
+/**
+ * Calls fn, giving the exec calls that it makes the given priority ('high', 'normal' or 'low')
+ * instead of the one declared by their plugins.  The native side runs queued calls highest
+ * priority first, e.g.
+ *
+ *     exec.withPriority('high', function() { navigator.camera.getPicture(onPhoto, onError); });
+ */
+CodenameOneExec.withPriority = function(priority, fn) {
+    var previous = cn1ExecPriority;
+    cn1ExecPriority = priority;
+    try {
+        return fn();
+    } finally {
+        cn1ExecPriority = previous;
+    }
+};
+
+/**
+ * Stores a result that the native side said can be reused for the given number of
+ * milliseconds, so that calls with the same arguments don't cross the bridge.  This is
+ * called with every successful result (with a ttl of 0 if it can't be reused), so that
+ * calls to actions whose results are never cached don't keep their arguments.  The cache
+ * keeps its own copy of the result, and each call answered from it gets a copy too, so
+ * callers can modify their results.
+ */
+CodenameOneExec.cacheResult = function(callbackId, value, ttl) {
+    var callback = cordova.callbacks[callbackId];
+    if (!callback) {
+        return;
+    }
+    var args = callback.args;
+    // Only the first result is cached, so streams don't hold on to their arguments.
+    delete callback.args;
+    var name = callback.service + '.' + callback.action;
+    if (ttl > 0) {
+        cn1CacheableActions[name] = true;
+    } else if (!cn1CacheableActions.hasOwnProperty(name)) {
+        cn1CacheableActions[name] = false;
+    }
+    if (!(ttl > 0) || args === undefined) {
+        return;
+    }
+    if (cn1ResultCacheCount >= CN1_RESULT_CACHE_MAX) {
+        cn1ResultCache = {};
+        cn1ResultCacheCount = 0;
+    }
+    var key = name + ':' + args;
+    if (!cn1ResultCache.hasOwnProperty(key)) {
+        cn1ResultCacheCount++;
+    }
+    cn1ResultCache[key] = {service: callback.service, action: callback.action, value: cn1CloneResult(value), expires: +new Date() + ttl};
+};
+
+/**
+ * Makes a deep copy of a result, so that cached results can't be changed by the code they are handed to.
+ */
+function cn1CloneResult(value) {
+    if (value === null || typeof value !== 'object') {
+        return value;
+    }
+    if (value instanceof ArrayBuffer) {
+        return value.slice(0);
+    }
+    var copy = Array.isArray(value) ? [] : {};
+    for (var key in value) {
+        if (value.hasOwnProperty(key)) {
+            copy[key] = cn1CloneResult(value[key]);
+        }
+    }
+    return copy;
 }
 
+/**
+ * Drops cached results.  Both arguments are optional: with no service, all results are
+ * dropped, and with no action, all results of the service are dropped.  The native
+ * cache is invalidated too.
+ */
+CodenameOneExec.invalidateCache = function(service, action, fromNative) {
+    for (var key in cn1ResultCache) {
+        var cached = cn1ResultCache[key];
+        if (cn1ResultCache.hasOwnProperty(key) && (!service || (cached.service == service && (!action || cached.action == action)))) {
+            delete cn1ResultCache[key];
+            cn1ResultCacheCount--;
+        }
+    }
+    if (!fromNative) {
+        CodenameOneExec(null, null, 'CN1Bridge', 'invalidateCache', [service || null, action || null]);
+    }
+};
+
+/**
+ * Cancels a callback that is receiving streamed results (keepCallback).  The callback
+ * is removed right away, and the native side is told to stop sending results to it.
+ * The callbackId is the value returned by cordova.exec().
+ */
+CodenameOneExec.cancel = function(callbackId) {
+    if (!callbackId || callbackId == 'INVALID') {
+        return;
+    }
+    delete cordova.callbacks[callbackId];
+    CodenameOneExec(null, null, 'CN1Bridge', 'cancel', [callbackId]);
+};
+
 function iOSExec() {
     if (bridgeMode === undefined) {
         if (navigator.userAgent) {
@@ -1207,6 +1609,182 @@ module.exports = CodenameOneExec;
 
 });
 
+// file: src/codenameone/codec.js
+define("cordova/cn1codec", function(require, exports, module) {
+
+/**
+ * Decodes the compact encoding of binary results (BridgeCodec.COMPACT on the native side).  Bytes
+ * are packed into a stream of 15 bit values, high bit first, and each value is written as the
+ * character COMPACT_BASE + value.  These characters are below the surrogates and never need
+ * escaping, so the data takes 2.5 times fewer characters than base64.
+ */
+var COMPACT_BASE = 0x3000;
+
+/**
+ * Decodes length bytes from a string in the compact encoding into array, starting at offset.
+ */
+exports.decodeCompact = function(str, length, array, offset) {
+    var acc = 0, bits = 0, pos = offset, end = offset + length;
+    for (var i = 0, len = str.length; i < len && pos < end; i++) {
+        acc = (acc << 15) | ((str.charCodeAt(i) - COMPACT_BASE) & 0x7fff);
+        bits += 15;
+        while (bits >= 8 && pos < end) {
+            bits -= 8;
+            array[pos++] = (acc >> bits) & 0xff;
+        }
+        acc &= (1 << bits) - 1;
+    }
+};
+
+/**
+ * Decodes a string in the compact encoding into an ArrayBuffer of the given length.
+ */
+exports.toArrayBuffer = function(str, length) {
+    var array = new Uint8Array(length);
+    exports.decodeCompact(str, length, array, 0);
+    return array.buffer;
+};
+
+});
+
+// file: src/codenameone/events.js
+define("cordova/cn1events", function(require, exports, module) {
+
+/**
+ * Listens to events published by native code through the EventChannel.  All topics share
+ * one long-lived callback, and events are fanned out to the listeners here.  Each callback
+ * from native carries a batch of [topic, data] pairs.
+ */
+var channel = require('cordova/channel');
+var listeners = {};
+var listening = false;
+
+function whenNativeReady(fn) {
+    channel.onNativeReady.subscribe(function() {
+        fn();
+    });
+}
+
+function deliver(events) {
+    if (!events || !events.length) {
+        return;
+    }
+    for (var i = 0; i < events.length; i++) {
+        var topic = events[i][0];
+        var list = listeners[topic];
+        if (!list) {
+            continue;
+        }
+        // Copy so that listeners can remove themselves.
+        list = list.slice();
+        for (var j = 0; j < list.length; j++) {
+            try {
+                list[j](events[i][1], topic);
+            } catch (e) {
+                console.log("Error in event listener for " + topic + ": " + e);
+            }
+        }
+    }
+}
+
+function listen() {
+    if (listening) {
+        return;
+    }
+    listening = true;
+    whenNativeReady(function() {
+        require('cordova/exec')(deliver, function(e) {
+            listening = false;
+            console.log("Event channel closed: " + e);
+        }, 'CN1Events', 'listen', []);
+    });
+}
+
+/**
+ * Adds a listener for a topic.  The listener receives the event data and the topic.
+ */
+exports.on = function(topic, listener) {
+    var list = listeners[topic];
+    if (!list) {
+        list = listeners[topic] = [];
+        listen();
+        whenNativeReady(function() {
+            require('cordova/exec')(null, null, 'CN1Events', 'subscribe', [topic]);
+        });
+    }
+    list.push(listener);
+};
+
+/**
+ * Removes a listener for a topic.
+ */
+exports.off = function(topic, listener) {
+    var list = listeners[topic];
+    if (!list) {
+        return;
+    }
+    var index = list.indexOf(listener);
+    if (index != -1) {
+        list.splice(index, 1);
+    }
+    if (!list.length) {
+        delete listeners[topic];
+        whenNativeReady(function() {
+            require('cordova/exec')(null, null, 'CN1Events', 'unsubscribe', [topic]);
+        });
+    }
+};
+
+/**
+ * Adds a listener that is removed after it receives one event.
+ */
+exports.once = function(topic, listener) {
+    var wrapper = function(data, t) {
+        exports.off(topic, wrapper);
+        listener(data, t);
+    };
+    exports.on(topic, wrapper);
+};
+
+});
+
+// file: src/codenameone/blobs.js
+define("cordova/cn1blobs", function(require, exports, module) {
+
+/**
+ * Releases blobs that plugins returned as URLs from the native BlobStore.  A blob's file
+ * may be deleted once it is released, so release it after the element or request that loads
+ * it is done with it.
+ */
+var channel = require('cordova/channel');
+
+/**
+ * Releases one or more blobs.  Takes the URLs or handles of the blobs, and an optional
+ * callback that receives the number of blobs that were released.
+ */
+exports.release = function() {
+    var handles = [];
+    var callback = null;
+    for (var i = 0; i < arguments.length; i++) {
+        if (typeof arguments[i] == 'function') {
+            callback = arguments[i];
+        } else if (arguments[i]) {
+            handles.push(String(arguments[i]));
+        }
+    }
+    if (!handles.length) {
+        callback && callback(0);
+        return;
+    }
+    channel.onNativeReady.subscribe(function() {
+        require('cordova/exec')(callback, function(e) {
+            console.log("Failed to release blobs: " + e);
+        }, 'CN1Blobs', 'release', handles);
+    });
+};
+
+});
+
 // file: src/common/exec/proxy.js
 define("cordova/exec/proxy", function(require, exports, module) {
 
@@ -1329,6 +1907,8 @@ if (window._nativeReady) {
 modulemapper.clobbers('cordova', 'cordova');
 modulemapper.clobbers('cordova/exec', 'cordova.exec');
 modulemapper.clobbers('cordova/exec', 'Cordova.exec');
+modulemapper.clobbers('cordova/cn1events', 'cordova.events');
+modulemapper.clobbers('cordova/cn1blobs', 'cordova.blobs');
 //alert('in 1');
 // Call the platform-specific initialization.
 platform.bootstrap && platform.bootstrap();
@@ -1586,6 +2166,31 @@ module.exports = {
     id: 'codenameone',
     bootstrap: function() {
         //require('cordova/channel').onNativeReady.fire();
+        var channel = require('cordova/channel');
+        var timing = { start: +new Date() };
+        require('cordova').readyTiming = timing;
+        channel.onNativeReady.subscribe(function() {
+            timing.nativeReady = +new Date() - timing.start;
+        });
+        channel.onDeviceReady.subscribe(function() {
+            timing.deviceReady = +new Date() - timing.start;
+        });
+        if (window._nativeReady || window._cn1NativeReadyRequested) {
+            return;
+        }
+        // Ask the native side for the bridge now instead of waiting for it to be
+        // installed on page load, which waits for every image and script on the page.
+        // The native side intercepts this navigation and cancels it.
+        window._cn1NativeReadyRequested = true;
+        var frame = document.createElement('iframe');
+        frame.style.display = 'none';
+        frame.src = '/!cn1nativeready?' + timing.start;
+        (document.body || document.documentElement).appendChild(frame);
+        channel.onNativeReady.subscribe(function() {
+            if (frame.parentNode) {
+                frame.parentNode.removeChild(frame);
+            }
+        });
     }
 };
 